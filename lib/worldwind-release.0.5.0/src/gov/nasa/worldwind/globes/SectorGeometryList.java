@@ -200,16 +200,192 @@ public class SectorGeometryList extends ArrayList<SectorGeometry>
             throw new IllegalArgumentException(msg);
         }
 
-        for (SectorGeometry sg : this)
+        return this.getTileIndex().getSurfacePoint(latitude, longitude, metersOffset, null);
+    }
+
+    /**
+     * Computes the surface points of many locations in one call. Consecutive locations usually fall in the same
+     * tile, so the tile of the previous location is tried first.
+     *
+     * @param locations    the locations to compute points for.
+     * @param metersOffset the distance above the surface of every point.
+     * @return an array parallel to <code>locations</code>, with <code>null</code> for locations not covered by the
+     *         current tiles.
+     * @throws IllegalArgumentException if <code>locations</code> is null.
+     */
+    public Vec4[] getSurfacePoints(List<LatLon> locations, double metersOffset)
+    {
+        if (locations == null)
+        {
+            String msg = Logging.getMessage("nullValue.LatLonListIsNull");
+            Logging.logger().severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        TileIndex index = this.getTileIndex();
+        Vec4[] points = new Vec4[locations.size()];
+        SectorGeometry[] lastHit = new SectorGeometry[1];
+        int i = 0;
+        for (LatLon ll : locations)
+        {
+            points[i++] = ll != null
+                ? index.getSurfacePoint(ll.getLatitude(), ll.getLongitude(), metersOffset, lastHit) : null;
+        }
+
+        return points;
+    }
+
+    @Override
+    public SectorGeometry set(int index, SectorGeometry element)
+    {
+        ++this.modCount; // ArrayList does not count a set as a modification, but the tile index has to know
+        return super.set(index, element);
+    }
+
+    private volatile TileIndex tileIndex;
+
+    private TileIndex getTileIndex()
+    {
+        TileIndex index = this.tileIndex;
+        if (index == null || index.modCount != this.modCount)
+        {
+            index = new TileIndex(this, this.modCount);
+            this.tileIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * A grid over the bounding sector of the tiles, each cell holding the tiles that overlap it in list order. The
+     * tessellator refills the list every frame, so the grid is rebuilt on the first lookup after the list changes.
+     */
+    private static class TileIndex
+    {
+        private static final int MAX_CELLS_PER_SIDE = 128;
+
+        private final int modCount;
+        private final SectorGeometry[][] cells;
+        private final int numRows;
+        private final int numCols;
+        private double minLat;
+        private double minLon;
+        private double maxLat;
+        private double maxLon;
+        private double cellLat;
+        private double cellLon;
+
+        private TileIndex(List<SectorGeometry> tiles, int modCount)
+        {
+            this.modCount = modCount;
+
+            int n = 0;
+            this.minLat = this.minLon = Double.MAX_VALUE;
+            this.maxLat = this.maxLon = -Double.MAX_VALUE;
+            for (SectorGeometry sg : tiles)
+            {
+                Sector s = sg.getSector();
+                this.minLat = Math.min(this.minLat, s.getMinLatitude().degrees);
+                this.maxLat = Math.max(this.maxLat, s.getMaxLatitude().degrees);
+                this.minLon = Math.min(this.minLon, s.getMinLongitude().degrees);
+                this.maxLon = Math.max(this.maxLon, s.getMaxLongitude().degrees);
+                ++n;
+            }
+
+            // About four cells per tile keeps each cell to a few tiles without the grid outgrowing the tile list.
+            int side = n == 0 ? 0 : Math.min(MAX_CELLS_PER_SIDE, 2 * (int) Math.ceil(Math.sqrt(n)));
+            this.numRows = side;
+            this.numCols = side;
+            this.cellLat = side == 0 ? 1 : Math.max(this.maxLat - this.minLat, 1e-9) / side;
+            this.cellLon = side == 0 ? 1 : Math.max(this.maxLon - this.minLon, 1e-9) / side;
+
+            ArrayList<ArrayList<SectorGeometry>> lists = new ArrayList<ArrayList<SectorGeometry>>(side * side);
+            for (int i = 0; i < side * side; i++)
+            {
+                lists.add(null);
+            }
+
+            for (SectorGeometry sg : tiles)
+            {
+                Sector s = sg.getSector();
+                int r0 = this.row(s.getMinLatitude().degrees);
+                int r1 = this.row(s.getMaxLatitude().degrees);
+                int c0 = this.col(s.getMinLongitude().degrees);
+                int c1 = this.col(s.getMaxLongitude().degrees);
+                for (int r = r0; r <= r1; r++)
+                {
+                    for (int c = c0; c <= c1; c++)
+                    {
+                        ArrayList<SectorGeometry> cell = lists.get(r * side + c);
+                        if (cell == null)
+                        {
+                            cell = new ArrayList<SectorGeometry>(4);
+                            lists.set(r * side + c, cell);
+                        }
+                        cell.add(sg);
+                    }
+                }
+            }
+
+            this.cells = new SectorGeometry[side * side][];
+            for (int i = 0; i < this.cells.length; i++)
+            {
+                ArrayList<SectorGeometry> cell = lists.get(i);
+                if (cell != null)
+                    this.cells[i] = cell.toArray(new SectorGeometry[cell.size()]);
+            }
+        }
+
+        private int row(double latitude)
+        {
+            return Math.max(0, Math.min(this.numRows - 1, (int) ((latitude - this.minLat) / this.cellLat)));
+        }
+
+        private int col(double longitude)
+        {
+            return Math.max(0, Math.min(this.numCols - 1, (int) ((longitude - this.minLon) / this.cellLon)));
+        }
+
+        /**
+         * Finds the first tile in list order that contains the location and yields a point, as the linear scan did.
+         * <code>lastHit</code>, if not null, holds the tile to try first and receives the tile that was used.
+         */
+        private Vec4 getSurfacePoint(Angle latitude, Angle longitude, double metersOffset, SectorGeometry[] lastHit)
         {
-            if (sg.getSector().contains(latitude, longitude))
+            if (lastHit != null && lastHit[0] != null && lastHit[0].getSector().contains(latitude, longitude))
             {
-                Vec4 point = sg.getSurfacePoint(latitude, longitude, metersOffset);
+                Vec4 point = lastHit[0].getSurfacePoint(latitude, longitude, metersOffset);
                 if (point != null)
                     return point;
             }
-        }
 
-        return null;
+            if (this.cells.length == 0)
+                return null;
+
+            double lat = latitude.degrees;
+            double lon = longitude.degrees;
+            if (lat < this.minLat || lat > this.maxLat || lon < this.minLon || lon > this.maxLon)
+                return null;
+
+            SectorGeometry[] cell = this.cells[this.row(lat) * this.numCols + this.col(lon)];
+            if (cell == null)
+                return null;
+
+            for (SectorGeometry sg : cell)
+            {
+                if (sg.getSector().contains(latitude, longitude))
+                {
+                    Vec4 point = sg.getSurfacePoint(latitude, longitude, metersOffset);
+                    if (point != null)
+                    {
+                        if (lastHit != null)
+                            lastHit[0] = sg;
+                        return point;
+                    }
+                }
+            }
+
+            return null;
+        }
     }
 }
@@ -6,6 +6,8 @@ All Rights Reserved.
 */
 package gov.nasa.worldwind.layers;
 
+import gov.nasa.worldwind.Locatable;
+import gov.nasa.worldwind.geom.*;
 import gov.nasa.worldwind.render.*;
 import gov.nasa.worldwind.util.Logging;
 
@@ -26,6 +28,8 @@ public class AnnotationLayer extends AbstractLayer
             new java.util.concurrent.ConcurrentLinkedQueue<Annotation>();
     private Iterable<Annotation> annotationsOverride;
     private AnnotationRenderer annotationRenderer = new BasicAnnotationRenderer();
+    private final AnnotationGrid annotationGrid = new AnnotationGrid();
+    private boolean indexAnnotations = false;
 
     /**
      * Creates a new <code>AnnotationLayer</code> with an empty collection of Annotations.
@@ -59,6 +63,8 @@ public class AnnotationLayer extends AbstractLayer
         }
 
         this.annotations.add(annotation);
+        if (this.indexAnnotations)
+            this.annotationGrid.add(annotation);
     }
 
     /**
@@ -89,7 +95,11 @@ public class AnnotationLayer extends AbstractLayer
         {
             // Internal list of annotations does not accept null values.
             if (annotation != null)
+            {
                 this.annotations.add(annotation);
+                if (this.indexAnnotations)
+                    this.annotationGrid.add(annotation);
+            }
         }
     }
 
@@ -118,6 +128,7 @@ public class AnnotationLayer extends AbstractLayer
         }
 
         this.annotations.remove(annotation);
+        this.annotationGrid.remove(annotation);
     }
 
     /**
@@ -143,6 +154,61 @@ public class AnnotationLayer extends AbstractLayer
     {
         if (this.annotations != null && this.annotations.size() > 0)
             this.annotations.clear();
+        this.annotationGrid.clear();
+    }
+
+    /**
+     * Returns true if this layer keeps its Annotations in a spatial index, so rendering and picking only look at those
+     * near the visible sector.
+     *
+     * @return true if Annotations are indexed.
+     */
+    public boolean isIndexAnnotations()
+    {
+        return this.indexAnnotations;
+    }
+
+    /**
+     * Sets whether this layer keeps its internal collection of Annotations in a spatial index of 5 degree latitude and
+     * longitude cells, so rendering and picking only look at the Annotations in the cells the visible sector touches.
+     * Annotations are placed in the index when they are added. An indexed Annotation that changes position must be
+     * reported to {@link #annotationMoved}, or it may not be drawn at its new position. A custom Iterable given to
+     * {@link #setAnnotations} is never indexed.
+     *
+     * @param indexAnnotations true to index Annotations.
+     */
+    public void setIndexAnnotations(boolean indexAnnotations)
+    {
+        this.indexAnnotations = indexAnnotations;
+        this.annotationGrid.clear();
+        if (indexAnnotations)
+        {
+            for (Annotation annotation : this.annotations)
+            {
+                this.annotationGrid.add(annotation);
+            }
+        }
+    }
+
+    /**
+     * Moves the specified <code>annotation</code> to its current position in this layer's spatial index. Does nothing
+     * if Annotations are not indexed or <code>annotation</code> is not in this layer.
+     *
+     * @param annotation Annotation that changed position.
+     * @throws IllegalArgumentException If <code>annotation</code> is null.
+     * @see #setIndexAnnotations
+     */
+    public void annotationMoved(Annotation annotation)
+    {
+        if (annotation == null)
+        {
+            String msg = Logging.getMessage("nullValue.AnnotationIsNull");
+            Logging.logger().severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        if (this.indexAnnotations)
+            this.annotationGrid.update(annotation);
     }
 
     /**
@@ -233,13 +299,129 @@ public class AnnotationLayer extends AbstractLayer
     @Override
     protected void doPick(DrawContext dc, java.awt.Point pickPoint)
     {
-        this.annotationRenderer.pick(dc, getActiveAnnotations(), pickPoint, this);
+        this.annotationRenderer.pick(dc, this.getVisibleAnnotations(dc), pickPoint, this);
     }
 
     @Override
     protected void doRender(DrawContext dc)
     {
-        this.annotationRenderer.render(dc, getActiveAnnotations());
+        this.annotationRenderer.render(dc, this.getVisibleAnnotations(dc));
+    }
+
+    private Iterable<Annotation> getVisibleAnnotations(DrawContext dc)
+    {
+        if (!this.indexAnnotations || this.annotationsOverride != null || dc.getVisibleSector() == null)
+            return getActiveAnnotations();
+
+        return this.annotationGrid.select(dc.getVisibleSector());
+    }
+
+    /**
+     * Buckets annotations by position on a fixed lat/lon grid, kept from frame to frame, so that only the ones in cells
+     * the visible sector touches are handed to the renderer. The surface point, frustum and horizon tests and the
+     * ordered renderable are only paid for those. Annotations without a position go in a cell of their own, which is
+     * always selected. Annotations are added and moved from other threads than the one drawing them.
+     */
+    private static class AnnotationGrid
+    {
+        private static final double CELL_SIZE = 5; // degrees
+        private static final int NUM_ROWS = 36;
+        private static final int NUM_COLS = 72;
+        private static final int NO_POSITION = NUM_ROWS * NUM_COLS;
+
+        private final java.util.HashMap<Annotation, Integer> cellOf = new java.util.HashMap<Annotation, Integer>();
+        @SuppressWarnings({"unchecked"})
+        private final java.util.LinkedHashSet<Annotation>[] cells = new java.util.LinkedHashSet[NO_POSITION + 1];
+        private final java.util.ArrayList<Annotation> candidates = new java.util.ArrayList<Annotation>();
+
+        private synchronized void add(Annotation annotation)
+        {
+            this.remove(annotation);
+            this.place(annotation, cellFor(annotation));
+        }
+
+        private synchronized void remove(Annotation annotation)
+        {
+            Integer cell = this.cellOf.remove(annotation);
+            if (cell != null)
+                this.cells[cell].remove(annotation);
+        }
+
+        private synchronized void update(Annotation annotation)
+        {
+            Integer oldCell = this.cellOf.get(annotation);
+            if (oldCell == null)
+                return;
+
+            int cell = cellFor(annotation);
+            if (cell != oldCell)
+            {
+                this.cells[oldCell].remove(annotation);
+                this.place(annotation, cell);
+            }
+        }
+
+        private synchronized void clear()
+        {
+            this.cellOf.clear();
+            for (java.util.LinkedHashSet<Annotation> c : this.cells)
+            {
+                if (c != null)
+                    c.clear();
+            }
+        }
+
+        /** The annotations in the cells <code>sector</code> touches. The list is reused by the next call. */
+        private synchronized Iterable<Annotation> select(Sector sector)
+        {
+            this.candidates.clear();
+            int r1 = row(sector.getMaxLatitude().degrees);
+            int c0 = col(sector.getMinLongitude().degrees);
+            int c1 = col(sector.getMaxLongitude().degrees);
+            for (int r = row(sector.getMinLatitude().degrees); r <= r1; r++)
+            {
+                for (int c = c0; c <= c1; c++)
+                {
+                    this.addCandidates(r * NUM_COLS + c);
+                }
+            }
+            this.addCandidates(NO_POSITION);
+
+            return this.candidates;
+        }
+
+        private void addCandidates(int cell)
+        {
+            if (this.cells[cell] != null && this.cells[cell].size() > 0)
+                this.candidates.addAll(this.cells[cell]);
+        }
+
+        private void place(Annotation annotation, int cell)
+        {
+            if (this.cells[cell] == null)
+                this.cells[cell] = new java.util.LinkedHashSet<Annotation>();
+            this.cells[cell].add(annotation);
+            this.cellOf.put(annotation, cell);
+        }
+
+        private static int cellFor(Annotation annotation)
+        {
+            Position pos = annotation instanceof Locatable ? ((Locatable) annotation).getPosition() : null;
+            if (pos == null)
+                return NO_POSITION;
+
+            return row(pos.getLatitude().degrees) * NUM_COLS + col(pos.getLongitude().degrees);
+        }
+
+        private static int row(double latitude)
+        {
+            return Math.max(0, Math.min(NUM_ROWS - 1, (int) ((latitude + 90) / CELL_SIZE)));
+        }
+
+        private static int col(double longitude)
+        {
+            return Math.max(0, Math.min(NUM_COLS - 1, (int) ((longitude + 180) / CELL_SIZE)));
+        }
     }
 
     @Override
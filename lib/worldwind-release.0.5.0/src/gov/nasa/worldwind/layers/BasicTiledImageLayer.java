@@ -67,6 +67,43 @@ public class BasicTiledImageLayer extends TiledImageLayer
         this.getRequestQ().add(task);
     }
 
+    /**
+     * Indicates whether a tile's texture is in the file cache.
+     *
+     * @param tile the tile to look for.
+     * @return true if the tile's texture is on disk.
+     * @throws IllegalArgumentException if <code>tile</code> is null.
+     */
+    public boolean isTextureCached(TextureTile tile)
+    {
+        if (tile == null)
+        {
+            String msg = Logging.getMessage("nullValue.TileIsNull");
+            Logging.logger().severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        return WorldWind.getDataFileCache().findFile(tile.getPath(), false) != null;
+    }
+
+    /**
+     * Retrieves a tile's texture into the file cache ahead of the view, at the tile's priority, unless it is already
+     * there. Lets an application fetch imagery for places it is about to show. The texture is only saved to disk; it
+     * is loaded when the tile is next drawn.
+     *
+     * @param tile the tile to retrieve.
+     * @return true if the texture was requested, false if it was already in the file cache.
+     * @throws IllegalArgumentException if <code>tile</code> is null.
+     */
+    public boolean prefetchTexture(TextureTile tile)
+    {
+        if (this.isTextureCached(tile))
+            return false;
+
+        this.downloadTexture(tile);
+        return true;
+    }
+
     private static class RequestTask implements Runnable, Comparable<RequestTask>
     {
         private final BasicTiledImageLayer layer;
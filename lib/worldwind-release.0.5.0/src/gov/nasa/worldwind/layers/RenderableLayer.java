@@ -10,6 +10,8 @@ import gov.nasa.worldwind.Disposable;
 import gov.nasa.worldwind.Locatable;
 import gov.nasa.worldwind.pick.PickSupport;
 import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.Polyline;
+import gov.nasa.worldwind.render.PolylineBatchRenderer;
 import gov.nasa.worldwind.render.Renderable;
 import gov.nasa.worldwind.util.Logging;
 
@@ -29,6 +31,9 @@ public class RenderableLayer extends AbstractLayer
     private Iterable<Renderable> renderablesOverride;
     private final PickSupport pickSupport = new PickSupport();
     private final Layer delegateOwner;
+    private boolean batchPolylines = false;
+    private PolylineBatchRenderer polylineBatchRenderer;
+    private final java.util.ArrayList<Polyline> polylineBatch = new java.util.ArrayList<Polyline>();
 
     /**
      * Creates a new <code>RenderableLayer</code> with a null <code>delegateOwner</code>
@@ -288,6 +293,12 @@ public class RenderableLayer extends AbstractLayer
     @Override
     protected void doRender(DrawContext dc)
     {
+        if (this.batchPolylines)
+        {
+            this.renderBatched(dc);
+            return;
+        }
+
         for (Renderable renderable : getActiveRenderables())
         {
             // If the caller has specified their own Iterable,
@@ -297,6 +308,53 @@ public class RenderableLayer extends AbstractLayer
         }
     }
 
+    private void renderBatched(DrawContext dc)
+    {
+        try
+        {
+            for (Renderable renderable : getActiveRenderables())
+            {
+                if (renderable instanceof Polyline)
+                    this.polylineBatch.add((Polyline) renderable);
+                else if (renderable != null)
+                    renderable.render(dc);
+            }
+
+            if (this.polylineBatch.size() > 0)
+            {
+                if (this.polylineBatchRenderer == null)
+                    this.polylineBatchRenderer = new PolylineBatchRenderer();
+                this.polylineBatchRenderer.render(dc, this.polylineBatch);
+            }
+        }
+        finally
+        {
+            this.polylineBatch.clear(); // holds no references between frames
+        }
+    }
+
+    /**
+     * Indicates whether this layer draws its {@link Polyline}s together with a {@link PolylineBatchRenderer}.
+     *
+     * @return true if polylines are batched.
+     */
+    public boolean isBatchPolylines()
+    {
+        return batchPolylines;
+    }
+
+    /**
+     * Specifies whether this layer draws its {@link Polyline}s together with a {@link PolylineBatchRenderer}, grouped
+     * by line style, instead of one at a time. Batched polylines are drawn after the layer's other renderables.
+     * Picking is not affected.
+     *
+     * @param batchPolylines true to batch polylines.
+     */
+    public void setBatchPolylines(boolean batchPolylines)
+    {
+        this.batchPolylines = batchPolylines;
+    }
+
     /**
      * Returns this layer's delegate owner, or null if none has been specified.
      *
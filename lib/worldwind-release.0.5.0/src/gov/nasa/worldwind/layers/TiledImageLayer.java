@@ -156,7 +156,7 @@ public abstract class TiledImageLayer extends AbstractLayer
         this.drawBoundingVolumes = drawBoundingVolumes;
     }
 
-    protected LevelSet getLevels()
+    public LevelSet getLevels()
     {
         return levels;
     }
@@ -9,6 +9,7 @@ package gov.nasa.worldwind.render;
 import gov.nasa.worldwind.Locatable;
 import gov.nasa.worldwind.exception.WWRuntimeException;
 import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Frustum;
 import gov.nasa.worldwind.geom.Position;
 import gov.nasa.worldwind.geom.Vec4;
 import gov.nasa.worldwind.globes.SectorGeometryList;
@@ -34,6 +35,11 @@ import java.util.logging.Level;
 public class BasicAnnotationRenderer implements AnnotationRenderer
 {
     private PickSupport pickSupport = new PickSupport();
+    // Ordered annotations are reused from frame to frame, see nextOrderedAnnotation.
+    private final ArrayList<OrderedAnnotation> orderedAnnotations = new ArrayList<OrderedAnnotation>();
+    private int numOrderedAnnotations;
+    private DrawContext orderedAnnotationsDc;
+    private long orderedAnnotationsFrame;
 
 
     private static boolean isAnnotationValid(Annotation annotation, boolean checkPosition)
@@ -103,6 +109,8 @@ public class BasicAnnotationRenderer implements AnnotationRenderer
         if (!iterator.hasNext())
             return;
 
+        Frustum frustum = dc.getView().getFrustumInModelCoordinates();
+        double horizon = dc.getView().computeHorizonDistance();
         while (iterator.hasNext())
         {
             Annotation annotation = iterator.next();
@@ -112,19 +120,29 @@ public class BasicAnnotationRenderer implements AnnotationRenderer
             if (!annotation.getAttributes().isVisible())
                 continue;
 
-            // TODO: cull annotations that are beyound the horizon or outside the view frustrum
+            // Same culling as drawOne: outside the visible sector, outside the frustum or beyond the horizon.
             double eyeDistance = 1;
             if (annotation instanceof Locatable)
             {
+                Position pos = ((Locatable) annotation).getPosition();
+                if (!dc.getVisibleSector().contains(pos.getLatitude(), pos.getLongitude()))
+                    continue;
+
                 // Determine Cartesian position from the surface geometry if the annotation is near the surface,
                 // otherwise draw it from the globe.
                 Vec4 annotationPoint = getAnnotationDrawPoint(dc, annotation);
                 if (annotationPoint == null)
                     continue;
+
+                if (!frustum.contains(annotationPoint))
+                    continue;
+
                 eyeDistance = annotation.isAlwaysOnTop() ? 0 : dc.getView().getEyePoint().distanceTo3(annotationPoint);
+                if (eyeDistance > horizon)
+                    continue;
             }
             // The annotations aren't drawn here, but added to the ordered queue to be drawn back-to-front.
-            dc.addOrderedRenderable(new OrderedAnnotation(annotation, eyeDistance));
+            dc.addOrderedRenderable(this.nextOrderedAnnotation(dc, annotation, eyeDistance));
         }
     }
 
@@ -174,7 +192,39 @@ public class BasicAnnotationRenderer implements AnnotationRenderer
                 return;
         }
         // The annotation isn't drawn here, but added to the ordered queue to be drawn back-to-front.
-        dc.addOrderedRenderable(new OrderedAnnotation(annotation, eyeDistance));
+        dc.addOrderedRenderable(this.nextOrderedAnnotation(dc, annotation, eyeDistance));
+    }
+
+    /**
+     * Returns an ordered annotation for the current frame. The draw context's ordered renderables are all drawn before
+     * the next frame starts, so once it has the ordered annotations of the frames before it are free to use again.
+     *
+     * @param dc          the current draw context.
+     * @param annotation  the annotation to draw.
+     * @param eyeDistance the annotation's distance from the eye.
+     *
+     * @return an ordered annotation no other renderable in the current frame is using.
+     */
+    private OrderedAnnotation nextOrderedAnnotation(DrawContext dc, Annotation annotation, double eyeDistance)
+    {
+        if (dc != this.orderedAnnotationsDc || dc.getFrameNumber() != this.orderedAnnotationsFrame)
+        {
+            for (int i = 0; i < this.numOrderedAnnotations; i++)
+            {
+                this.orderedAnnotations.get(i).annotation = null; // don't hold on to annotations that were removed
+            }
+            this.numOrderedAnnotations = 0;
+            this.orderedAnnotationsDc = dc;
+            this.orderedAnnotationsFrame = dc.getFrameNumber();
+        }
+
+        if (this.numOrderedAnnotations == this.orderedAnnotations.size())
+            this.orderedAnnotations.add(new OrderedAnnotation(null, 0));
+
+        OrderedAnnotation oa = this.orderedAnnotations.get(this.numOrderedAnnotations++);
+        oa.annotation = annotation;
+        oa.eyeDistance = eyeDistance;
+        return oa;
     }
 
     /**
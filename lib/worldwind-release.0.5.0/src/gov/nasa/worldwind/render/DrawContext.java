@@ -270,6 +270,14 @@ public interface DrawContext extends WWObject, Disposable
 
     java.util.Queue<OrderedRenderable> getOrderedRenderables();
 
+    /**
+     * Returns a number that changes each time this draw context is initialized for a new frame. Renderers that reuse
+     * their ordered renderables use it to tell when the previous frame's have all been drawn.
+     *
+     * @return the number of the current frame.
+     */
+    long getFrameNumber();
+
     void drawUnitQuad();
 
     void drawUnitQuad(TextureCoords texCoords);
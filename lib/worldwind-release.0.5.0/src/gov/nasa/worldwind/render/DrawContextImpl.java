@@ -52,17 +52,9 @@ public class DrawContextImpl extends WWObjectImpl implements DrawContext
     private Set<String> perFrameStatisticsKeys;
     private Collection<PerformanceStatistic> perFrameStatistics;
 
-    PriorityQueue<OrderedRenderable> orderedRenderables =
-        new PriorityQueue<OrderedRenderable>(100, new Comparator<OrderedRenderable>()
-        {
-            public int compare(OrderedRenderable orA, OrderedRenderable orB)
-            {
-                double eA = orA.getDistanceFromEye();
-                double eB = orB.getDistanceFromEye();
+    private long frameNumber;
 
-                return eA > eB ? -1 : eA == eB ? 0 : 1;
-            }
-        });
+    OrderedRenderableQueue orderedRenderables = new OrderedRenderableQueue(100);
 
     public void reinitialize()
     {
@@ -135,6 +127,7 @@ public class DrawContextImpl extends WWObjectImpl implements DrawContext
         this.pickedObjects.clear();
         this.orderedRenderables.clear();
         this.uniquePickNumber = 0;
+        ++this.frameNumber;
 
         if (this.numTextureUnits < 1)
             this.numTextureUnits = queryMaxTextureUnits(glContext);
@@ -447,6 +440,11 @@ public class DrawContextImpl extends WWObjectImpl implements DrawContext
         return this.orderedRenderables;
     }
 
+    public long getFrameNumber()
+    {
+        return this.frameNumber;
+    }
+
     public void drawUnitQuad()
     {
         GL gl = this.getGL();
@@ -31,6 +31,11 @@ public class IconRenderer
     private Pedestal pedestal;
     private PickSupport pickSupport = new PickSupport();
     private HashMap<Font, ToolTipRenderer> toolTipRenderers = new HashMap<Font, ToolTipRenderer>();
+    // Ordered icons are reused from frame to frame, see nextOrderedIcon.
+    private final ArrayList<OrderedIcon> orderedIcons = new ArrayList<OrderedIcon>();
+    private int numOrderedIcons;
+    private DrawContext orderedIconsDc;
+    private long orderedIconsFrame;
 
     public IconRenderer()
     {
@@ -133,7 +138,7 @@ public class IconRenderer
 
             // The icons aren't drawn here, but added to the ordered queue to be drawn back-to-front.
             double eyeDistance = icon.isAlwaysOnTop() ? 0 : dc.getView().getEyePoint().distanceTo3(iconPoint);
-            dc.addOrderedRenderable(new OrderedIcon(icon, iconPoint, eyeDistance));
+            dc.addOrderedRenderable(this.nextOrderedIcon(dc, icon, iconPoint, eyeDistance));
 
             if (icon.isShowToolTip())
                 this.addToolTip(dc, icon, iconPoint);
@@ -182,12 +187,46 @@ public class IconRenderer
             return;
 
         // The icon isn't drawn here, but added to the ordered queue to be drawn back-to-front.
-        dc.addOrderedRenderable(new OrderedIcon(icon, iconPoint, eyeDistance));
+        dc.addOrderedRenderable(this.nextOrderedIcon(dc, icon, iconPoint, eyeDistance));
 
         if (icon.isShowToolTip())
             this.addToolTip(dc, icon, iconPoint);
     }
 
+    /**
+     * Returns an ordered icon for the current frame. The draw context's ordered renderables are all drawn before the
+     * next frame starts, so once it has the ordered icons of the frames before it are free to use again.
+     *
+     * @param dc          the current draw context.
+     * @param icon        the icon to draw.
+     * @param iconPoint   the icon's model coordinate point.
+     * @param eyeDistance the icon's distance from the eye.
+     *
+     * @return an ordered icon no other renderable in the current frame is using.
+     */
+    private OrderedIcon nextOrderedIcon(DrawContext dc, WWIcon icon, Vec4 iconPoint, double eyeDistance)
+    {
+        if (dc != this.orderedIconsDc || dc.getFrameNumber() != this.orderedIconsFrame)
+        {
+            for (int i = 0; i < this.numOrderedIcons; i++)
+            {
+                this.orderedIcons.get(i).icon = null; // don't hold on to icons that were removed
+            }
+            this.numOrderedIcons = 0;
+            this.orderedIconsDc = dc;
+            this.orderedIconsFrame = dc.getFrameNumber();
+        }
+
+        if (this.numOrderedIcons == this.orderedIcons.size())
+            this.orderedIcons.add(new OrderedIcon(null, null, 0));
+
+        OrderedIcon oi = this.orderedIcons.get(this.numOrderedIcons++);
+        oi.icon = icon;
+        oi.point = iconPoint;
+        oi.eyeDistance = eyeDistance;
+        return oi;
+    }
+
     private void addToolTip(DrawContext dc, WWIcon icon, Vec4 iconPoint)
     {
         if (icon.getToolTipFont() == null && icon.getToolTipText() == null)
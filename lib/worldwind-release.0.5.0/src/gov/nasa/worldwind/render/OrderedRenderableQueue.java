@@ -0,0 +1,276 @@
+/*
+Copyright (C) 2001, 2006 United States Government
+as represented by the Administrator of the
+National Aeronautics and Space Administration.
+All Rights Reserved.
+*/
+package gov.nasa.worldwind.render;
+
+import java.util.*;
+
+/**
+ * The queue of a frame's ordered renderables, farthest from the eye first. Renderables are appended to parallel arrays
+ * of eye distances and renderables as they are added, and the arrays are sorted once, by a radix sort of the
+ * distances, when the queue is first read. Anything added while the queue is being drained is sorted in with what is
+ * left the next time the queue is read.
+ * <p/>
+ * The arrays are kept and reused from frame to frame, so clearing and refilling the queue allocates nothing once it
+ * has grown to the frame's size. Renderables at the same distance come out in the order they were added.
+ */
+public class OrderedRenderableQueue extends AbstractQueue<OrderedRenderable>
+{
+    private static final int MIN_RADIX_SORT_SIZE = 64; // insertion sort is faster below this
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private OrderedRenderable[] items;
+    private long[] keys;
+    private OrderedRenderable[] itemsScratch;
+    private long[] keysScratch;
+    private final int[] counts = new int[RADIX];
+    private int head;
+    private int tail;
+    private boolean sorted = true;
+
+    public OrderedRenderableQueue()
+    {
+        this(100);
+    }
+
+    public OrderedRenderableQueue(int initialCapacity)
+    {
+        if (initialCapacity < 1)
+            initialCapacity = 1;
+
+        this.items = new OrderedRenderable[initialCapacity];
+        this.keys = new long[initialCapacity];
+        this.itemsScratch = new OrderedRenderable[initialCapacity];
+        this.keysScratch = new long[initialCapacity];
+    }
+
+    public boolean offer(OrderedRenderable orderedRenderable)
+    {
+        if (orderedRenderable == null)
+            throw new NullPointerException();
+
+        if (this.tail == this.items.length)
+            this.grow();
+
+        long key = sortKey(orderedRenderable.getDistanceFromEye());
+        if (this.sorted && this.tail > this.head && key < this.keys[this.tail - 1])
+            this.sorted = false;
+
+        this.keys[this.tail] = key;
+        this.items[this.tail++] = orderedRenderable;
+        return true;
+    }
+
+    public OrderedRenderable peek()
+    {
+        if (this.head == this.tail)
+            return null;
+
+        if (!this.sorted)
+            this.sort();
+
+        return this.items[this.head];
+    }
+
+    public OrderedRenderable poll()
+    {
+        OrderedRenderable orderedRenderable = this.peek();
+        if (orderedRenderable == null)
+            return null;
+
+        this.items[this.head++] = null;
+        if (this.head == this.tail)
+            this.head = this.tail = 0;
+
+        return orderedRenderable;
+    }
+
+    public int size()
+    {
+        return this.tail - this.head;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.tail == this.head;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(this.items, this.head, this.tail, null);
+        this.head = this.tail = 0;
+        this.sorted = true;
+    }
+
+    /** Iterates in the order the renderables would be polled. */
+    public Iterator<OrderedRenderable> iterator()
+    {
+        if (!this.sorted)
+            this.sort();
+
+        return new Iterator<OrderedRenderable>()
+        {
+            private int next = head;
+            private final int end = tail;
+
+            public boolean hasNext()
+            {
+                return this.next < this.end;
+            }
+
+            public OrderedRenderable next()
+            {
+                if (this.next >= this.end)
+                    throw new NoSuchElementException();
+                if (tail != this.end || head > this.next)
+                    throw new ConcurrentModificationException();
+
+                return items[this.next++];
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Maps an eye distance to a long whose signed order is the reverse of the distance's, so an ascending sort of the
+     * keys puts the farthest renderable first. Positive doubles already order like their bits; negative ones order in
+     * reverse, so their magnitude bits are flipped.
+     */
+    private static long sortKey(double distance)
+    {
+        long bits = Double.doubleToLongBits(distance);
+        bits ^= (bits >> 63) & Long.MAX_VALUE;
+        return ~bits;
+    }
+
+    private void grow()
+    {
+        int capacity = 2 * this.items.length;
+
+        OrderedRenderable[] newItems = new OrderedRenderable[capacity];
+        long[] newKeys = new long[capacity];
+        System.arraycopy(this.items, this.head, newItems, 0, this.tail - this.head);
+        System.arraycopy(this.keys, this.head, newKeys, 0, this.tail - this.head);
+        this.items = newItems;
+        this.keys = newKeys;
+        this.itemsScratch = new OrderedRenderable[capacity];
+        this.keysScratch = new long[capacity];
+
+        this.tail -= this.head;
+        this.head = 0;
+    }
+
+    private void sort()
+    {
+        if (this.tail - this.head < MIN_RADIX_SORT_SIZE)
+            this.insertionSort();
+        else
+            this.radixSort();
+
+        this.sorted = true;
+    }
+
+    private void insertionSort()
+    {
+        long[] k = this.keys;
+        OrderedRenderable[] o = this.items;
+
+        for (int i = this.head + 1; i < this.tail; i++)
+        {
+            long key = k[i];
+            OrderedRenderable item = o[i];
+            int j = i - 1;
+            while (j >= this.head && k[j] > key)
+            {
+                k[j + 1] = k[j];
+                o[j + 1] = o[j];
+                j--;
+            }
+            k[j + 1] = key;
+            o[j + 1] = item;
+        }
+    }
+
+    /**
+     * Least significant digit first, one byte at a time. A byte that is the same in every key is skipped, which for eye
+     * distances within a few orders of magnitude of each other is most of the high ones. Each pass moves the range back
+     * and forth between the queue's arrays and the scratch arrays.
+     */
+    private void radixSort()
+    {
+        int n = this.tail - this.head;
+        long[] srcKeys = this.keys;
+        OrderedRenderable[] srcItems = this.items;
+        long[] dstKeys = this.keysScratch;
+        OrderedRenderable[] dstItems = this.itemsScratch;
+        int src = this.head;
+        int dst = 0;
+
+        for (int shift = 0; shift < 64; shift += RADIX_BITS)
+        {
+            Arrays.fill(this.counts, 0);
+            for (int i = src; i < src + n; i++)
+            {
+                this.counts[digit(srcKeys[i], shift)]++;
+            }
+
+            if (this.counts[digit(srcKeys[src], shift)] == n)
+                continue;
+
+            int offset = dst;
+            for (int d = 0; d < RADIX; d++)
+            {
+                int count = this.counts[d];
+                this.counts[d] = offset;
+                offset += count;
+            }
+
+            for (int i = src; i < src + n; i++)
+            {
+                int to = this.counts[digit(srcKeys[i], shift)]++;
+                dstKeys[to] = srcKeys[i];
+                dstItems[to] = srcItems[i];
+            }
+
+            long[] tk = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tk;
+            OrderedRenderable[] ti = srcItems;
+            srcItems = dstItems;
+            dstItems = ti;
+            int t = src;
+            src = dst;
+            dst = t;
+        }
+
+        if (srcKeys != this.keys)
+        {
+            // The sorted range ended up in the scratch arrays; make them the queue's.
+            this.keysScratch = this.keys;
+            this.itemsScratch = this.items;
+            Arrays.fill(this.itemsScratch, this.head, this.tail, null);
+            this.keys = srcKeys;
+            this.items = srcItems;
+            this.head = 0;
+            this.tail = n;
+        }
+        else
+        {
+            Arrays.fill(this.itemsScratch, 0, n, null);
+        }
+    }
+
+    /** Flipping the top bit makes the unsigned order of the digits match the signed order of the keys. */
+    private static int digit(long key, int shift)
+    {
+        return (int) (((key ^ Long.MIN_VALUE) >>> shift) & (RADIX - 1));
+    }
+}
@@ -6,6 +6,7 @@ All Rights Reserved.
 */
 package gov.nasa.worldwind.render;
 
+import com.sun.opengl.util.BufferUtil;
 import gov.nasa.worldwind.*;
 import gov.nasa.worldwind.geom.*;
 import gov.nasa.worldwind.globes.*;
@@ -13,6 +14,7 @@ import gov.nasa.worldwind.util.*;
 
 import javax.media.opengl.*;
 import java.awt.*;
+import java.nio.FloatBuffer;
 import java.util.*;
 
 /**
@@ -42,7 +44,7 @@ public class Polyline implements Renderable, Movable, Restorable
     private double offset = 0;
     private double terrainConformance = 10;
     private int pathType = GREAT_CIRCLE;
-    private ArrayList<ArrayList<Vec4>> currentSpans;
+    private ArrayList<ArrayList<Vec4>> currentSpans; // only while making the vertices of a line off the terrain
     private double length;
     private short stipplePattern = (short) 0xAAAA;
     private int stippleFactor = 0;
@@ -50,6 +52,15 @@ public class Polyline implements Renderable, Movable, Restorable
     private int numSubsegments = 10;
     private boolean highlighted = false;
     private Color highlightColor = new Color(1f, 1f, 1f, 0.5f);
+    private boolean useVertexArrays = true;
+    private FloatBuffer vertexBuffer; // every span packed x, y, z relative to the reference center, reused
+    private int[] spanFirsts = new int[0];
+    private int[] spanCounts = new int[0];
+    private int numSpans;
+    private Globe vertexGlobe; // what the current vertices were computed for
+    private double vertexExaggeration;
+    private final ArrayList<LatLon> sampleLocations = new ArrayList<LatLon>(); // terrain samples, reused
+    private int[] sampleSpanSizes = new int[0];
 
     public Polyline()
     {
@@ -68,9 +79,7 @@ public class Polyline implements Renderable, Movable, Restorable
 
     private void reset()
     {
-        if (this.currentSpans != null)
-            this.currentSpans.clear();
-        this.currentSpans = null;
+        this.vertexGlobe = null; // recompute the vertices
     }
 
     public Color getColor()
@@ -288,6 +297,22 @@ public class Polyline implements Renderable, Movable, Restorable
         this.highlightColor = highlightColor;
     }
 
+    public boolean isUseVertexArrays()
+    {
+        return useVertexArrays;
+    }
+
+    /**
+     * Specifies whether the line is drawn from vertex arrays, with one draw call per pass, or in immediate mode with
+     * one call per vertex. Vertex arrays are the default.
+     *
+     * @param useVertexArrays true to draw from vertex arrays, false to use immediate mode.
+     */
+    public void setUseVertexArrays(boolean useVertexArrays)
+    {
+        this.useVertexArrays = useVertexArrays;
+    }
+
     /**
      * Specifies the path's positions.
      *
@@ -363,22 +388,8 @@ public class Polyline implements Renderable, Movable, Restorable
             throw new IllegalStateException(message);
         }
 
-        this.globe = dc.getGlobe();
-
-        if (this.positions.size() < 2)
-            return;
-
-        if (this.currentSpans == null || this.followTerrain) // vertices computed every frame to follow terrain changes
-        {
-            // Reference center must be computed prior to computing vertices.
-            this.computeReferenceCenter(dc);
-            this.makeVertices(dc);
-        }
-
-        if (this.currentSpans == null || this.currentSpans.size() < 1)
-        {
+        if (!this.updateVertices(dc))
             return;
-        }
 
         GL gl = dc.getGL();
 
@@ -391,6 +402,12 @@ public class Polyline implements Renderable, Movable, Restorable
 
         gl.glPushAttrib(attrBits);
         dc.getView().pushReferenceCenter(dc, this.referenceCenterPoint);
+        if (this.useVertexArrays)
+        {
+            gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT);
+            gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+            gl.glVertexPointer(3, GL.GL_FLOAT, 0, this.vertexBuffer.rewind());
+        }
 
         try
         {
@@ -434,21 +451,7 @@ public class Polyline implements Renderable, Movable, Restorable
             if (this.followTerrain)
                 this.pushOffest(dc);
 
-            for (ArrayList<Vec4> span : this.currentSpans)
-            {
-                if (span == null)
-                    continue;
-
-                // Since segements can very often be very short -- two vertices -- use explicit rendering. The
-                // overhead of batched rendering, e.g., gl.glDrawArrays, is too high because it requires copying
-                // the vertices into a DoubleBuffer, and DoubleBuffer creation and access performs relatively poorly.
-                gl.glBegin(primType);
-                for (Vec4 p : span)
-                {
-                    gl.glVertex3d(p.x, p.y, p.z);
-                }
-                gl.glEnd();
-            }
+            this.drawSpans(gl, primType);
 
             if (this.highlighted)
             {
@@ -463,18 +466,7 @@ public class Polyline implements Renderable, Movable, Restorable
                         (byte) this.highlightColor.getBlue(), (byte) this.highlightColor.getAlpha());
 
                     gl.glLineWidth((float) this.lineWidth + 2);
-                    for (ArrayList<Vec4> span : this.currentSpans)
-                    {
-                        if (span == null)
-                            continue;
-
-                        gl.glBegin(primType);
-                        for (Vec4 p : span)
-                        {
-                            gl.glVertex3d(p.x, p.y, p.z);
-                        }
-                        gl.glEnd();
-                    }
+                    this.drawSpans(gl, primType);
                 }
             }
 
@@ -483,11 +475,136 @@ public class Polyline implements Renderable, Movable, Restorable
         }
         finally
         {
+            if (this.useVertexArrays)
+                gl.glPopClientAttrib();
             gl.glPopAttrib();
             dc.getView().popReferenceCenter(dc);
         }
     }
 
+    /**
+     * Brings the spans up to date for the current frame. Also used by {@link PolylineBatchRenderer}, which draws the
+     * spans itself.
+     *
+     * @param dc the current draw context.
+     * @return true if there is anything to draw.
+     */
+    boolean updateVertices(DrawContext dc)
+    {
+        this.globe = dc.getGlobe();
+
+        if (this.positions.size() < 2)
+            return false;
+
+        if (this.vertexGlobe == null || this.followTerrain // vertices computed every frame to follow terrain changes
+            || this.vertexGlobe != dc.getGlobe() || this.vertexExaggeration != dc.getVerticalExaggeration())
+        {
+            // Reference center must be computed prior to computing vertices.
+            this.computeReferenceCenter(dc);
+            this.makeVertices(dc);
+            this.vertexGlobe = dc.getGlobe();
+            this.vertexExaggeration = dc.getVerticalExaggeration();
+        }
+
+        return this.numSpans > 0;
+    }
+
+    /**
+     * The vertices made by the last {@link #updateVertices} call, x, y, z relative to {@link
+     * #getReferenceCenterPoint}. Span <code>i</code> is the {@link #getSpanCounts}<code>[i]</code> vertices from
+     * vertex {@link #getSpanFirsts}<code>[i]</code>.
+     */
+    FloatBuffer getVertexBuffer()
+    {
+        return this.vertexBuffer;
+    }
+
+    int[] getSpanFirsts()
+    {
+        return this.spanFirsts;
+    }
+
+    int[] getSpanCounts()
+    {
+        return this.spanCounts;
+    }
+
+    int getNumSpans()
+    {
+        return this.numSpans;
+    }
+
+    Vec4 getReferenceCenterPoint()
+    {
+        return this.referenceCenterPoint;
+    }
+
+    private void drawSpans(GL gl, int primType)
+    {
+        if (this.useVertexArrays)
+        {
+            gl.glMultiDrawArrays(primType, this.spanFirsts, 0, this.spanCounts, 0, this.numSpans);
+            return;
+        }
+
+        for (int i = 0; i < this.numSpans; i++)
+        {
+            gl.glBegin(primType);
+            for (int j = 3 * this.spanFirsts[i], end = j + 3 * this.spanCounts[i]; j < end; j += 3)
+            {
+                gl.glVertex3f(this.vertexBuffer.get(j), this.vertexBuffer.get(j + 1), this.vertexBuffer.get(j + 2));
+            }
+            gl.glEnd();
+        }
+    }
+
+    /** Copies the current spans into the vertex buffer. */
+    private void packVertices()
+    {
+        int numVertices = 0;
+        for (ArrayList<Vec4> span : this.currentSpans)
+        {
+            numVertices += span.size();
+        }
+        this.clearVertices(numVertices, this.currentSpans.size());
+
+        for (ArrayList<Vec4> span : this.currentSpans)
+        {
+            for (Vec4 p : span)
+            {
+                this.vertexBuffer.put((float) p.x).put((float) p.y).put((float) p.z);
+            }
+            this.endSpan(span.size());
+        }
+        this.vertexBuffer.flip();
+    }
+
+    /**
+     * Empties the vertex buffer and the span index arrays for the given number of vertices and spans, growing them only
+     * when they are too small, so remaking a line that did not grow allocates nothing.
+     */
+    private void clearVertices(int numVertices, int numSpans)
+    {
+        if (this.vertexBuffer == null || this.vertexBuffer.capacity() < 3 * numVertices)
+            this.vertexBuffer = BufferUtil.newFloatBuffer(3 * Math.max(numVertices, 2 * this.positions.size()));
+        if (this.spanFirsts.length < numSpans)
+        {
+            this.spanFirsts = new int[numSpans];
+            this.spanCounts = new int[numSpans];
+        }
+
+        this.vertexBuffer.clear();
+        this.numSpans = 0;
+    }
+
+    /** Records the last <code>numVertices</code> vertices put in the vertex buffer as a span. */
+    private void endSpan(int numVertices)
+    {
+        this.spanFirsts[this.numSpans] = this.vertexBuffer.position() / 3 - numVertices;
+        this.spanCounts[this.numSpans] = numVertices;
+        ++this.numSpans;
+    }
+
     private void pushOffest(DrawContext dc)
     {
         // Modify the projection transform to shift the depth values slightly toward the camera in order to
@@ -514,16 +631,23 @@ public class Polyline implements Renderable, Movable, Restorable
 
     protected void makeVertices(DrawContext dc)
     {
-        if (this.currentSpans == null)
-            this.currentSpans = new ArrayList<ArrayList<Vec4>>();
-        else
-            this.currentSpans.clear();
-
         this.length = 0;
+        this.numSpans = 0;
 
         if (this.positions.size() < 1)
             return;
 
+        if (this.followTerrain)
+        {
+            this.makeTerrainVertices(dc);
+            return;
+        }
+
+        if (this.currentSpans == null)
+            this.currentSpans = new ArrayList<ArrayList<Vec4>>();
+        else
+            this.currentSpans.clear();
+
         Position posA = this.positions.get(0);
         Vec4 ptA = this.computePoint(dc, posA, true);
         for (int i = 1; i <= this.positions.size(); i++)
@@ -554,6 +678,162 @@ public class Polyline implements Renderable, Movable, Restorable
             posA = posB;
             ptA = ptB;
         }
+
+        this.packVertices();
+        this.currentSpans.clear();
+    }
+
+    /**
+     * Makes the spans of a terrain following line in two passes, so that every point on the terrain is computed by one
+     * {@link SectorGeometryList#getSurfacePoints} call instead of one lookup at a time. The first pass lists the
+     * locations to sample along every visible segment. Samples are spaced by the screen size of the previous sample,
+     * as {@link #makeSegment} does; since the terrain under a sample is not known yet, its height is interpolated
+     * between the heights of the segment's end points. The second pass resolves all the locations at once and writes
+     * them straight into the vertex buffer.
+     *
+     * @param dc the current draw context.
+     */
+    private void makeTerrainVertices(DrawContext dc)
+    {
+        int numPoints = this.closed ? this.positions.size() + 1 : this.positions.size();
+        this.sampleLocations.clear();
+        for (int i = 0; i < numPoints; i++)
+        {
+            this.sampleLocations.add(this.positions.get(i % this.positions.size()).getLatLon());
+        }
+        Vec4[] points = this.computeTerrainPoints(dc, this.sampleLocations);
+
+        this.sampleLocations.clear();
+        int numSampleSpans = 0;
+        for (int i = 1; i < numPoints; i++)
+        {
+            Position posA = this.positions.get(i - 1);
+            Position posB = this.positions.get(i % this.positions.size());
+            if (!this.isSegmentVisible(dc, posA, posB, points[i - 1], points[i]))
+                continue;
+
+            int n = this.addSegmentSamples(dc, posA, posB, points[i - 1], points[i]);
+            if (numSampleSpans == this.sampleSpanSizes.length)
+            {
+                int[] newSizes = new int[Math.max(16, 2 * numSampleSpans)];
+                System.arraycopy(this.sampleSpanSizes, 0, newSizes, 0, numSampleSpans);
+                this.sampleSpanSizes = newSizes;
+            }
+            this.sampleSpanSizes[numSampleSpans++] = n;
+        }
+
+        Vec4[] samples = this.computeTerrainPoints(dc, this.sampleLocations);
+        this.clearVertices(samples.length, numSampleSpans);
+        Vec4 ref = this.referenceCenterPoint;
+        int k = 0;
+        for (int i = 0; i < numSampleSpans; i++)
+        {
+            for (int j = 0; j < this.sampleSpanSizes[i]; j++, k++)
+            {
+                Vec4 p = samples[k];
+                this.vertexBuffer.put((float) (p.x - ref.x)).put((float) (p.y - ref.y)).put((float) (p.z - ref.z));
+                if (j > 0)
+                    this.length += samples[k - 1].distanceTo3(p);
+            }
+            this.endSpan(this.sampleSpanSizes[i]);
+        }
+        this.vertexBuffer.flip();
+    }
+
+    /**
+     * Adds the locations to sample along one segment to <code>sampleLocations</code>, from <code>posA</code> through
+     * <code>posB</code>.
+     *
+     * @return the number of locations added.
+     */
+    private int addSegmentSamples(DrawContext dc, Position posA, Position posB, Vec4 ptA, Vec4 ptB)
+    {
+        this.sampleLocations.add(posA.getLatLon());
+
+        double arcLength = this.computeSegmentLength(dc, posA, posB);
+        if (arcLength <= 0) // points differing only in altitude
+        {
+            if (ptA.equals(ptB))
+                return 1;
+            this.sampleLocations.add(posB.getLatLon());
+            return 2;
+        }
+
+        Globe globe = dc.getGlobe();
+        double heightA = globe.computePositionFromPoint(ptA).getElevation();
+        double heightB = globe.computePositionFromPoint(ptB).getElevation();
+        Angle[] path = this.computePath(posA, posB);
+        Vec4 eye = dc.getView().getEyePoint();
+
+        int n = 1;
+        Vec4 pt = ptA;
+        for (double s = 0, p = 0; s < 1;)
+        {
+            p += this.terrainConformance * dc.getView().computePixelSizeAtDistance(pt.distanceTo3(eye));
+            s = p / arcLength;
+
+            if (s >= 1)
+            {
+                this.sampleLocations.add(posB.getLatLon());
+            }
+            else
+            {
+                Position pos = this.interpolate(s, posA, posB, path);
+                this.sampleLocations.add(pos.getLatLon());
+                pt = globe.computePointFromPosition(pos.getLatitude(), pos.getLongitude(),
+                    (1 - s) * heightA + s * heightB);
+            }
+            ++n;
+        }
+
+        return n;
+    }
+
+    /** The terrain points of many locations, this line's offset above the terrain. */
+    private Vec4[] computeTerrainPoints(DrawContext dc, ArrayList<LatLon> locations)
+    {
+        Vec4[] points = dc.getSurfaceGeometry().getSurfacePoints(locations, this.offset);
+        for (int i = 0; i < points.length; i++)
+        {
+            if (points[i] == null)
+            {
+                LatLon ll = locations.get(i);
+                points[i] = dc.getGlobe().computePointFromPosition(ll.getLatitude(), ll.getLongitude(),
+                    this.offset + dc.getGlobe().getElevation(ll.getLatitude(), ll.getLongitude())
+                        * dc.getVerticalExaggeration());
+            }
+        }
+
+        return points;
+    }
+
+    /**
+     * The azimuth and distance from <code>posA</code> to <code>posB</code> along this line's path type, or null for
+     * linear paths, which don't need them.
+     */
+    private Angle[] computePath(Position posA, Position posB)
+    {
+        if (this.pathType == LINEAR)
+            return null;
+        else if (this.pathType == RHUMB_LINE) // or LOXODROME
+            return new Angle[] {LatLon.rhumbAzimuth(posA.getLatLon(), posB.getLatLon()),
+                LatLon.rhumbDistance(posA.getLatLon(), posB.getLatLon())};
+        else // GREAT_CIRCLE
+            return new Angle[] {LatLon.greatCircleAzimuth(posA.getLatLon(), posB.getLatLon()),
+                LatLon.greatCircleDistance(posA.getLatLon(), posB.getLatLon())};
+    }
+
+    /** The position <code>s</code> of the way from <code>posA</code> to <code>posB</code> along this line's path type. */
+    private Position interpolate(double s, Position posA, Position posB, Angle[] path)
+    {
+        if (this.pathType == LINEAR)
+            return Position.interpolate(s, posA, posB);
+
+        Angle distance = Angle.fromRadians(s * path[1].radians);
+        LatLon latLon = this.pathType == RHUMB_LINE
+            ? LatLon.rhumbEndPosition(posA.getLatLon(), path[0], distance)
+            : LatLon.greatCircleEndPosition(posA.getLatLon(), path[0], distance);
+        return new Position(latLon, (1 - s) * posA.getElevation() + s * posB.getElevation());
     }
 
     private void addSpan(ArrayList<Vec4> span)
@@ -630,9 +910,7 @@ public class Polyline implements Renderable, Movable, Restorable
                 span = this.addPointToSpan(ptB, span);
             return span;
         }
-        // Variables for great circle and rhumb computation.
-        Angle segmentAzimuth = null;
-        Angle segmentDistance = null;
+        Angle[] path = this.computePath(posA, posB);
 
         for (double s = 0, p = 0; s < 1;)
         {
@@ -644,37 +922,7 @@ public class Polyline implements Renderable, Movable, Restorable
 
             s = p / arcLength;
 
-            Position pos;
-            if (s >= 1)
-            {
-                pos = posB;
-            }
-            else if (this.pathType == LINEAR)
-            {
-                pos = Position.interpolate(s, posA, posB);
-            }
-            else if (this.pathType == RHUMB_LINE) // or LOXODROME
-            {
-                if (segmentAzimuth == null)
-                {
-                    segmentAzimuth = LatLon.rhumbAzimuth(posA.getLatLon(), posB.getLatLon());
-                    segmentDistance = LatLon.rhumbDistance(posA.getLatLon(), posB.getLatLon());
-                }
-                Angle distance = Angle.fromRadians(s * segmentDistance.radians);
-                LatLon latLon = LatLon.rhumbEndPosition(posA.getLatLon(), segmentAzimuth, distance);
-                pos = new Position(latLon, (1 - s) * posA.getElevation() + s * posB.getElevation());
-            }
-            else // GREAT_CIRCLE
-            {
-                if (segmentAzimuth == null)
-                {
-                    segmentAzimuth = LatLon.greatCircleAzimuth(posA.getLatLon(), posB.getLatLon());
-                    segmentDistance = LatLon.greatCircleDistance(posA.getLatLon(), posB.getLatLon());
-                }
-                Angle distance = Angle.fromRadians(s * segmentDistance.radians);
-                LatLon latLon = LatLon.greatCircleEndPosition(posA.getLatLon(), segmentAzimuth, distance);
-                pos = new Position(latLon, (1 - s) * posA.getElevation() + s * posB.getElevation());
-            }
+            Position pos = s >= 1 ? posB : this.interpolate(s, posA, posB, path);
 
             ptB = this.computePoint(dc, pos, true);
             span = this.clipAndAdd(dc, ptA, ptB, span);
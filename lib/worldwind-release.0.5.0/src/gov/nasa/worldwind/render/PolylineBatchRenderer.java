@@ -0,0 +1,324 @@
+/*
+Copyright (C) 2001, 2006 United States Government
+as represented by the Administrator of the
+National Aeronautics and Space Administration.
+All Rights Reserved.
+*/
+package gov.nasa.worldwind.render;
+
+import com.sun.opengl.util.BufferUtil;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.util.Logging;
+
+import javax.media.opengl.GL;
+import java.awt.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Draws many {@link Polyline}s with as few state changes as possible. Polylines are grouped by everything that needs
+ * GL state to change between them -- line width, stipple, blending, fill, antialiasing hint and terrain following --
+ * and each group's spans are merged into one vertex buffer with a color per vertex, relative to one reference center
+ * per group. Each group is then drawn with a single <code>glMultiDrawArrays</code> call. Highlights are drawn as their
+ * own groups after all the others, as each polyline would draw them after itself.
+ * <p/>
+ * The buffers are kept and reused from frame to frame, so a frame whose polylines do not grow allocates nothing. A
+ * group that no polyline used for a frame is dropped.
+ * Picking is not batched; polylines need a unique color each, so layers pick them one at a time.
+ */
+public class PolylineBatchRenderer
+{
+    private final LinkedHashMap<Style, Batch> batches = new LinkedHashMap<Style, Batch>();
+    private final LinkedHashMap<Style, Batch> highlightBatches = new LinkedHashMap<Style, Batch>();
+    private final Style probe = new Style(); // looks batches up without making a key per polyline
+    private final float[] projection = new float[16];
+
+    public PolylineBatchRenderer()
+    {
+    }
+
+    public void render(DrawContext dc, Iterable<Polyline> polylines)
+    {
+        if (dc == null)
+        {
+            String msg = Logging.getMessage("nullValue.DrawContextIsNull");
+            Logging.logger().severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        if (polylines == null)
+        {
+            String msg = Logging.getMessage("nullValue.IterableIsNull");
+            Logging.logger().severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        this.clearBatches(this.batches);
+        this.clearBatches(this.highlightBatches);
+
+        for (Polyline line : polylines)
+        {
+            if (line == null || !line.updateVertices(dc))
+                continue;
+
+            this.getBatch(this.batches, line, line.getLineWidth(), line.getColor()).add(line, line.getColor());
+            if (line.isHighlighted())
+            {
+                this.getBatch(this.highlightBatches, line, line.getLineWidth() + 2, line.getHighlightColor())
+                    .add(line, line.getHighlightColor());
+            }
+        }
+
+        GL gl = dc.getGL();
+        gl.glPushAttrib(GL.GL_HINT_BIT | GL.GL_CURRENT_BIT | GL.GL_LINE_BIT | GL.GL_COLOR_BUFFER_BIT);
+        gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT);
+        try
+        {
+            gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GL.GL_COLOR_ARRAY);
+
+            for (Map.Entry<Style, Batch> entry : this.batches.entrySet())
+            {
+                this.draw(dc, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Style, Batch> entry : this.highlightBatches.entrySet())
+            {
+                this.draw(dc, entry.getKey(), entry.getValue());
+            }
+        }
+        finally
+        {
+            gl.glPopClientAttrib();
+            gl.glPopAttrib();
+        }
+    }
+
+    /** Empties the batches for a new frame, dropping those no polyline used last frame. */
+    private void clearBatches(HashMap<Style, Batch> map)
+    {
+        for (Iterator<Batch> iter = map.values().iterator(); iter.hasNext();)
+        {
+            Batch batch = iter.next();
+            if (batch.numSpans == 0)
+                iter.remove();
+            else
+                batch.clear();
+        }
+    }
+
+    private Batch getBatch(HashMap<Style, Batch> map, Polyline line, double lineWidth, Color color)
+    {
+        this.probe.set(line, lineWidth, color.getAlpha() != 255);
+        Batch batch = map.get(this.probe);
+        if (batch == null)
+        {
+            batch = new Batch();
+            map.put(new Style().set(line, lineWidth, color.getAlpha() != 255), batch);
+        }
+
+        return batch;
+    }
+
+    private void draw(DrawContext dc, Style style, Batch batch)
+    {
+        if (batch.numSpans == 0)
+            return;
+
+        GL gl = dc.getGL();
+        if (style.blend)
+        {
+            gl.glEnable(GL.GL_BLEND);
+            gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+        }
+        else
+        {
+            gl.glDisable(GL.GL_BLEND);
+        }
+
+        if (style.stippleFactor > 0)
+        {
+            gl.glEnable(GL.GL_LINE_STIPPLE);
+            gl.glLineStipple(style.stippleFactor, style.stipplePattern);
+        }
+        else
+        {
+            gl.glDisable(GL.GL_LINE_STIPPLE);
+        }
+
+        gl.glHint(style.filled ? GL.GL_POLYGON_SMOOTH_HINT : GL.GL_LINE_SMOOTH_HINT, style.antiAliasHint);
+        gl.glLineWidth((float) style.lineWidth);
+
+        dc.getView().pushReferenceCenter(dc, batch.referenceCenter);
+        if (style.followTerrain)
+            this.pushOffset(dc);
+        try
+        {
+            gl.glVertexPointer(3, GL.GL_FLOAT, 0, batch.vertices.flip());
+            gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, 0, batch.colors.flip());
+            gl.glMultiDrawArrays(style.filled ? GL.GL_POLYGON : GL.GL_LINE_STRIP, batch.firsts, 0, batch.counts, 0,
+                batch.numSpans);
+        }
+        finally
+        {
+            if (style.followTerrain)
+                this.popOffset(dc);
+            dc.getView().popReferenceCenter(dc);
+        }
+    }
+
+    // Same depth offset as Polyline uses for lines on the terrain.
+    private void pushOffset(DrawContext dc)
+    {
+        GL gl = dc.getGL();
+
+        gl.glGetFloatv(GL.GL_PROJECTION_MATRIX, this.projection, 0);
+        this.projection[10] *= 0.99;
+
+        gl.glPushAttrib(GL.GL_TRANSFORM_BIT);
+        gl.glMatrixMode(GL.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadMatrixf(this.projection, 0);
+    }
+
+    private void popOffset(DrawContext dc)
+    {
+        GL gl = dc.getGL();
+        gl.glMatrixMode(GL.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+    }
+
+    /** Everything that changes GL state between two polylines. Color is not part of it, it goes in the vertices. */
+    private static class Style
+    {
+        private double lineWidth;
+        private int stippleFactor;
+        private short stipplePattern;
+        private boolean blend;
+        private boolean filled;
+        private boolean followTerrain;
+        private int antiAliasHint;
+
+        private Style set(Polyline line, double lineWidth, boolean blend)
+        {
+            this.lineWidth = lineWidth;
+            this.stippleFactor = line.getStippleFactor();
+            this.stipplePattern = this.stippleFactor > 0 ? line.getStipplePattern() : 0;
+            this.blend = blend;
+            this.filled = line.isFilled();
+            this.followTerrain = line.isFollowTerrain();
+            this.antiAliasHint = line.getAntiAliasHint();
+            return this;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Style that = (Style) o;
+            return this.lineWidth == that.lineWidth && this.stippleFactor == that.stippleFactor
+                && this.stipplePattern == that.stipplePattern && this.blend == that.blend
+                && this.filled == that.filled && this.followTerrain == that.followTerrain
+                && this.antiAliasHint == that.antiAliasHint;
+        }
+
+        public int hashCode()
+        {
+            long bits = Double.doubleToLongBits(this.lineWidth);
+            int result = (int) (bits ^ (bits >>> 32));
+            result = 31 * result + this.stippleFactor;
+            result = 31 * result + this.stipplePattern;
+            result = 31 * result + (this.blend ? 1 : 0);
+            result = 31 * result + (this.filled ? 1 : 0);
+            result = 31 * result + (this.followTerrain ? 1 : 0);
+            result = 31 * result + this.antiAliasHint;
+            return result;
+        }
+    }
+
+    /** The merged spans of one style for the current frame. */
+    private static class Batch
+    {
+        private Vec4 referenceCenter;
+        private FloatBuffer vertices = BufferUtil.newFloatBuffer(3 * 256);
+        private ByteBuffer colors = BufferUtil.newByteBuffer(4 * 256);
+        private int[] firsts = new int[16];
+        private int[] counts = new int[16];
+        private int numSpans;
+        private int numVertices;
+
+        private void clear()
+        {
+            this.referenceCenter = null;
+            this.vertices.clear();
+            this.colors.clear();
+            this.numSpans = 0;
+            this.numVertices = 0;
+        }
+
+        private void add(Polyline line, Color color)
+        {
+            Vec4 lineCenter = line.getReferenceCenterPoint();
+            if (this.referenceCenter == null)
+                this.referenceCenter = lineCenter;
+
+            // The line's vertices are relative to its own reference center, these are relative to the batch's.
+            double dx = lineCenter.x - this.referenceCenter.x;
+            double dy = lineCenter.y - this.referenceCenter.y;
+            double dz = lineCenter.z - this.referenceCenter.z;
+            byte r = (byte) color.getRed();
+            byte g = (byte) color.getGreen();
+            byte b = (byte) color.getBlue();
+            byte a = (byte) color.getAlpha();
+
+            FloatBuffer lineVertices = line.getVertexBuffer();
+            int[] lineFirsts = line.getSpanFirsts();
+            int[] lineCounts = line.getSpanCounts();
+            for (int i = 0; i < line.getNumSpans(); i++)
+            {
+                int count = lineCounts[i];
+                this.reserve(count);
+                for (int j = 3 * lineFirsts[i], end = j + 3 * count; j < end; j += 3)
+                {
+                    this.vertices.put((float) (lineVertices.get(j) + dx)).put((float) (lineVertices.get(j + 1) + dy))
+                        .put((float) (lineVertices.get(j + 2) + dz));
+                    this.colors.put(r).put(g).put(b).put(a);
+                }
+                this.firsts[this.numSpans] = this.numVertices;
+                this.counts[this.numSpans] = count;
+                ++this.numSpans;
+                this.numVertices += count;
+            }
+        }
+
+        private void reserve(int numNewVertices)
+        {
+            if (this.numSpans == this.firsts.length)
+            {
+                int[] newFirsts = new int[2 * this.firsts.length];
+                int[] newCounts = new int[2 * this.counts.length];
+                System.arraycopy(this.firsts, 0, newFirsts, 0, this.numSpans);
+                System.arraycopy(this.counts, 0, newCounts, 0, this.numSpans);
+                this.firsts = newFirsts;
+                this.counts = newCounts;
+            }
+
+            if (this.vertices.remaining() < 3 * numNewVertices)
+            {
+                int capacity = Math.max(2 * this.vertices.capacity(), 3 * (this.numVertices + numNewVertices));
+                FloatBuffer newVertices = BufferUtil.newFloatBuffer(capacity);
+                this.vertices.flip();
+                newVertices.put(this.vertices);
+                this.vertices = newVertices;
+
+                ByteBuffer newColors = BufferUtil.newByteBuffer(capacity / 3 * 4);
+                this.colors.flip();
+                newColors.put(this.colors);
+                this.colors = newColors;
+            }
+        }
+    }
+}
@@ -1,46 +1,300 @@
 package localhost
 
-import gov.nasa.worldwind.render.Polyline
-import gov.nasa.worldwind.geom.Position
+import gov.nasa.worldwind.Disposable
+import gov.nasa.worldwind.render.{DrawContext, Renderable}
+import gov.nasa.worldwind.geom.{LatLon, Position, Vec4}
+import gov.nasa.worldwind.layers.{Layer, RenderableLayer}
+import com.sun.opengl.util.BufferUtil
 import java.awt.Color
-import java.util.{ArrayList => JArrayList}
+import javax.media.opengl.GL
 
-class AnimatedAnnotatedLine (val startPos: Position, val endPos: Position, val tweetAnno: TweetAnnotation, val color: Color, val isFollowed:Boolean) extends Polyline
+/**
+ * A line from startPos to endPos that grows as the animation runs. The whole arc is
+ * cut into numSegments pieces once, and updateLine only moves the end point along it,
+ * so each frame draws the part of the arc up to there without re-tessellating. The
+ * vertices (relative to the start point) follow the terrain: they are sampled from the
+ * surface geometry, all in one lookup, on the first frame, then again every
+ * resampleInterval frames and whenever the vertical exaggeration changes, so the line
+ * climbs onto better elevations as they load. Colors are scaled by the opacity of the layer the line is drawn in,
+ * which is how old trees fade out. A TreeLinesLayer draws its lines batched through
+ * addPrefix instead of calling render on each.
+ */
+class AnimatedAnnotatedLine (val startPos: Position, val endPos: Position, val tweetAnno: TweetAnnotation, val style: TreeStyle, val isFollowed:Boolean, val layer: Layer) extends Renderable with Disposable
 {
-  customConfigurations
-  
-  def updateLine(progress: Float) = {
-    val curPos = Position.interpolate(progress, startPos, endPos)
-    val posArray = new JArrayList[Position]
-    posArray.add(startPos)
-    posArray.add(curPos)
-    setPositions(posArray)
- 
-    tweetAnno.setPosition(curPos)
-  }
-  
-  def customConfigurations = {
-    setHighlighted(true)
-    if (isFollowed) {
-      setLineWidth(4)
-      setHighlightColor(new Color(Color.WHITE.getRed, Color.WHITE.getGreen, Color.WHITE.getBlue, 50))
-    } else {
-      setLineWidth(3)
-      setHighlightColor(new Color(Color.BLACK.getRed, Color.BLACK.getGreen, Color.BLACK.getBlue, 50))
-    }
-    setFollowTerrain(true)
-    setPathType(Polyline.LINEAR)
-    setColor(color)
-    setAntiAliasHint(Polyline.ANTIALIAS_FASTEST)
-  }
-  
-  def updateLineOpacity(alpha: Int) = {
-    def calcAlpha(a: Int): Int = 0 max (a - alpha)
-  
-	val lc = getColor
-	setColor(new Color(lc.getRed, lc.getGreen, lc.getBlue, calcAlpha(lc.getAlpha)))
-	val hc = getHighlightColor
-	setHighlightColor(new Color(hc.getRed, hc.getGreen, hc.getBlue, calcAlpha(hc.getAlpha)))   
+  val numSegments = 64
+  val resampleInterval = 30	//frames
+  val lineWidth = if (isFollowed) 4 else 3
+
+  val color = style.color
+  val highlightColor = if (isFollowed) style.followedHighlightColor else style.highlightColor
+
+  private val positions = new Array[Position](numSegments + 1)
+  for (i <- 0 to numSegments) positions(i) = Position.interpolate(i.toDouble / numSegments, startPos, endPos)
+  private val locations = new java.util.ArrayList[LatLon](positions.length)	//the same, for SectorGeometryList
+  positions.foreach(p => locations.add(p.getLatLon))
+
+  private var vertices: Array[Double] = null	//x, y, z per position, relative to referenceCenter
+  private var referenceCenter: Vec4 = null
+  private var verticalExaggeration = 0.0
+  private var framesSinceSample = 0
+
+  @volatile private var progress = 0.0
+
+  def updateLine(fraction: Float) = {
+    progress = 0f max fraction min 1f
+    tweetAnno.setPosition(Position.interpolate(progress, startPos, endPos))
+  }
+
+  /** brings the vertices up to date for this frame, render does it itself */
+  def prepare(dc: DrawContext) = {
+    if (vertices == null || verticalExaggeration != dc.getVerticalExaggeration || framesSinceSample >= resampleInterval) 
+      makeVertices(dc)
+    if (!dc.isPickingMode) framesSinceSample += 1
+  }
+
+  /** where the vertices are relative to, null before the first prepare */
+  def referencePoint = referenceCenter
+
+  /** adds the part of the line drawn so far to batch as one span, relative to center */
+  def addPrefix(batch: LineBatch, center: Vec4, c: Color, opacity: Double) = {
+    val end = progress * numSegments
+    val last = end.toInt min (numSegments - 1)
+    val fraction = end - last
+    val dx = referenceCenter.x - center.x
+    val dy = referenceCenter.y - center.y
+    val dz = referenceCenter.z - center.z
+    val r = c.getRed.toByte
+    val g = c.getGreen.toByte
+    val b = c.getBlue.toByte
+    val a = (c.getAlpha * opacity).toInt.toByte
+
+    batch.reserve(last + 2)
+    var i = 0
+    while (i <= last * 3) {
+      batch.put(vertices(i) + dx, vertices(i + 1) + dy, vertices(i + 2) + dz, r, g, b, a)
+      i += 3
+    }
+    batch.put(vertices(i - 3) + (vertices(i) - vertices(i - 3)) * fraction + dx,
+              vertices(i - 2) + (vertices(i + 1) - vertices(i - 2)) * fraction + dy,
+              vertices(i - 1) + (vertices(i + 2) - vertices(i - 1)) * fraction + dz, r, g, b, a)
+    batch.endSpan(last + 2)
+  }
+
+  def render(dc: DrawContext): Unit = {
+    prepare(dc)
+
+    val gl = dc.getGL
+    val opacity = layer.getOpacity
+    val end = progress * numSegments
+    val last = end.toInt min (numSegments - 1)
+    val fraction = end - last
+
+    gl.glPushAttrib(GL.GL_HINT_BIT | GL.GL_CURRENT_BIT | GL.GL_LINE_BIT | GL.GL_COLOR_BUFFER_BIT)
+    dc.getView.pushReferenceCenter(dc, referenceCenter)
+    AnimatedAnnotatedLine.pushDepthOffset(gl)
+    try {
+      gl.glHint(GL.GL_LINE_SMOOTH_HINT, GL.GL_FASTEST)
+      if (dc.isPickingMode) {	//the layer has set this line's pick color
+        gl.glLineWidth(lineWidth + 8)
+        drawPrefix(gl, last, fraction)
+        return
+      }
+      
+      gl.glEnable(GL.GL_BLEND)
+      gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA)
+      setColor(gl, color, opacity)
+      gl.glLineWidth(lineWidth)
+      drawPrefix(gl, last, fraction)
+
+      setColor(gl, highlightColor, opacity)
+      gl.glLineWidth(lineWidth + 2)
+      drawPrefix(gl, last, fraction)
+    } finally {
+      AnimatedAnnotatedLine.popDepthOffset(gl)
+      dc.getView.popReferenceCenter(dc)
+      gl.glPopAttrib()
+    }
+  }
+
+  /** every vertex up to last, then the point fraction of the way along the next segment */
+  private def drawPrefix(gl: GL, last: Int, fraction: Double) = {
+    gl.glBegin(GL.GL_LINE_STRIP)
+    var i = 0
+    while (i <= last * 3) {
+      gl.glVertex3d(vertices(i), vertices(i + 1), vertices(i + 2))
+      i += 3
+    }
+    gl.glVertex3d(vertices(i - 3) + (vertices(i) - vertices(i - 3)) * fraction,
+                  vertices(i - 2) + (vertices(i + 1) - vertices(i - 2)) * fraction,
+                  vertices(i - 1) + (vertices(i + 2) - vertices(i - 1)) * fraction)
+    gl.glEnd()
+  }
+
+  def dispose = {
+    vertices = null
+    referenceCenter = null
+  }
+
+  private def setColor(gl: GL, c: Color, opacity: Double) = 
+    gl.glColor4ub(c.getRed.toByte, c.getGreen.toByte, c.getBlue.toByte, (c.getAlpha * opacity).toInt.toByte)
+
+  private def makeVertices(dc: DrawContext) = {
+    verticalExaggeration = dc.getVerticalExaggeration
+    framesSinceSample = 0
+    if (vertices == null) vertices = new Array[Double](positions.length * 3)
+
+    //every position in one lookup, null where no terrain is being drawn
+    val surfacePoints = if (dc.getSurfaceGeometry == null) new Array[Vec4](positions.length)
+                        else dc.getSurfaceGeometry.getSurfacePoints(locations, 0)
+    val center = terrainPoint(dc, positions(0), surfacePoints(0))
+    for (i <- 0 until positions.length) {
+      val p = if (i == 0) center else terrainPoint(dc, positions(i), surfacePoints(i))
+      vertices(i * 3) = p.x - center.x
+      vertices(i * 3 + 1) = p.y - center.y
+      vertices(i * 3 + 2) = p.z - center.z
+    }
+    referenceCenter = center
+  }
+
+  /** the point on the terrain being drawn, or on the globe's elevations where there is none, like Polyline does */
+  private def terrainPoint(dc: DrawContext, p: Position, surfacePoint: Vec4): Vec4 = {
+    if (surfacePoint != null) surfacePoint
+    else dc.getGlobe.computePointFromPosition(p.getLatitude, p.getLongitude,
+                                              dc.getGlobe.getElevation(p.getLatitude, p.getLongitude) * verticalExaggeration)
+  }
+}
+
+object AnimatedAnnotatedLine {
+  private val projection = new Array[Float](16)	//only ever touched from the GL thread
+
+  /** pulls the lines slightly toward the eye so the terrain does not hide them, the same trick Polyline uses */
+  def pushDepthOffset(gl: GL) = {
+    gl.glGetFloatv(GL.GL_PROJECTION_MATRIX, projection, 0)
+    projection(10) *= 0.99f
+    gl.glPushAttrib(GL.GL_TRANSFORM_BIT)
+    gl.glMatrixMode(GL.GL_PROJECTION)
+    gl.glPushMatrix()
+    gl.glLoadMatrixf(projection, 0)
+  }
+
+  def popDepthOffset(gl: GL) = {
+    gl.glMatrixMode(GL.GL_PROJECTION)
+    gl.glPopMatrix()
+    gl.glPopAttrib()
+  }
+}
+
+/** line prefixes of one width, merged into one vertex buffer with a color per vertex */
+class LineBatch {
+  var lineWidth = 1
+  private var vertices = BufferUtil.newFloatBuffer(3 * 1024)
+  private var colors = BufferUtil.newByteBuffer(4 * 1024)
+  private var firsts = new Array[Int](16)
+  private var counts = new Array[Int](16)
+  private var numSpans = 0
+  private var numVertices = 0
+
+  def clear = {
+    vertices.clear
+    colors.clear
+    numSpans = 0
+    numVertices = 0
+  }
+
+  /** makes room for one more span of n vertices, the buffers only ever grow */
+  def reserve(n: Int) = {
+    if (numSpans == firsts.length) {
+      val newFirsts = new Array[Int](2 * numSpans)
+      val newCounts = new Array[Int](2 * numSpans)
+      System.arraycopy(firsts, 0, newFirsts, 0, numSpans)
+      System.arraycopy(counts, 0, newCounts, 0, numSpans)
+      firsts = newFirsts
+      counts = newCounts
+    }
+    if (vertices.remaining < 3 * n) {
+      val capacity = (2 * vertices.capacity) max (3 * (numVertices + n))
+      val newVertices = BufferUtil.newFloatBuffer(capacity)
+      vertices.flip
+      newVertices.put(vertices)
+      vertices = newVertices
+      val newColors = BufferUtil.newByteBuffer(capacity / 3 * 4)
+      colors.flip
+      newColors.put(colors)
+      colors = newColors
+    }
+  }
+
+  def put(x: Double, y: Double, z: Double, r: Byte, g: Byte, b: Byte, a: Byte) = {
+    vertices.put(x.toFloat).put(y.toFloat).put(z.toFloat)
+    colors.put(r).put(g).put(b).put(a)
+  }
+
+  /** the last n vertices put make a span */
+  def endSpan(n: Int) = {
+    firsts(numSpans) = numVertices
+    counts(numSpans) = n
+    numSpans += 1
+    numVertices += n
+  }
+
+  /** needs the vertex and color arrays enabled */
+  def draw(gl: GL) = if (numSpans > 0) {
+    gl.glLineWidth(lineWidth)
+    gl.glVertexPointer(3, GL.GL_FLOAT, 0, vertices.flip)
+    gl.glColorPointer(4, GL.GL_UNSIGNED_BYTE, 0, colors.flip)
+    gl.glMultiDrawArrays(GL.GL_LINE_STRIP, firsts, 0, counts, 0, numSpans)
   }
 }
 
+/**
+ * The lines layer of one tree. Rather than every AnimatedAnnotatedLine pushing GL state
+ * and drawing itself, it merges what each line has drawn so far into one LineBatch per
+ * line width, all relative to one reference center, and draws each batch with a single
+ * glMultiDrawArrays: four draw calls a frame however big the tree is. The highlights go
+ * after all the lines, as the widest batches. Picking is left to RenderableLayer, which
+ * renders every line on its own in its own pick color.
+ */
+class TreeLinesLayer extends RenderableLayer
+{
+  private val batches = Array(new LineBatch, new LineBatch, new LineBatch, new LineBatch)	//line, followed line, highlight, followed highlight
+
+  override protected def doRender(dc: DrawContext): Unit = {
+    batches.foreach(_.clear)
+    val opacity = getOpacity
+    var center: Vec4 = null
+    val iter = getRenderables.iterator
+    while (iter.hasNext) iter.next match {
+      case line: AnimatedAnnotatedLine => {
+        line.prepare(dc)
+        if (center == null) center = line.referencePoint
+        val i = if (line.isFollowed) 1 else 0
+        batches(i).lineWidth = line.lineWidth
+        line.addPrefix(batches(i), center, line.color, opacity)
+        batches(i + 2).lineWidth = line.lineWidth + 2
+        line.addPrefix(batches(i + 2), center, line.highlightColor, opacity)
+      }
+      case null =>
+      case r => r.render(dc)
+    }
+    if (center == null) return
+
+    val gl = dc.getGL
+    gl.glPushAttrib(GL.GL_HINT_BIT | GL.GL_CURRENT_BIT | GL.GL_LINE_BIT | GL.GL_COLOR_BUFFER_BIT)
+    gl.glPushClientAttrib(GL.GL_CLIENT_VERTEX_ARRAY_BIT)
+    dc.getView.pushReferenceCenter(dc, center)
+    AnimatedAnnotatedLine.pushDepthOffset(gl)
+    try {
+      gl.glHint(GL.GL_LINE_SMOOTH_HINT, GL.GL_FASTEST)
+      gl.glEnable(GL.GL_BLEND)
+      gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA)
+      gl.glEnableClientState(GL.GL_VERTEX_ARRAY)
+      gl.glEnableClientState(GL.GL_COLOR_ARRAY)
+      batches.foreach(_.draw(gl))
+    } finally {
+      AnimatedAnnotatedLine.popDepthOffset(gl)
+      dc.getView.popReferenceCenter(dc)
+      gl.glPopClientAttrib()
+      gl.glPopAttrib()
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package localhost
+
+import gov.nasa.worldwind.WorldWindow
+import gov.nasa.worldwind.event.{RenderingEvent, RenderingListener}
+import org.jdesktop.animation.timing.{TimingSource, TimingTarget}
+import java.util.{ArrayList => JArrayList}
+
+/**
+ * Runs every tween in the app off the WorldWindow's own frames instead of one Swing
+ * Timer per Animator. Right before each frame is drawn, tick hands every active tween
+ * its fraction in the order the tweens were started, and ends the finished ones in
+ * that same pass. It all happens on the GL thread, so nothing a tween touches changes
+ * halfway through a frame, and no threads get added however many tweens are running.
+ * While any are active, each frame asks for the next one.
+ *
+ * It is also a TimingSource, so anything from TimingFramework can listen to the same
+ * ticks. With no WorldWindow (the HeadlessHarness) nothing ticks it but calls to tick.
+ */
+class AnimationScheduler(val wwd: WorldWindow) extends TimingSource with RenderingListener {
+  val reportInterval = 600	//ticks between printed stats
+
+  private val active = new JArrayList[Tween]
+  private val pending = new JArrayList[Tween]	//started since the last tick
+  private val tasks = new JArrayList[() => Unit]	//run once at the start of the next tick
+  @volatile private var running = true
+
+  @volatile var numTweens = 0
+  @volatile var lastTickNanos = 0L
+  private var numTicks = 0L
+  private var totalTickNanos = 0L
+
+  if (wwd != null) wwd.addRenderingListener(this)
+
+  def averageTickMillis = totalTickNanos / (numTicks max 1) / 1000000.0
+
+  override def toString = "scheduler(tweens=" + numTweens + " lastTickMillis=" + (lastTickNanos / 1000000.0) +
+                          " avgTickMillis=" + averageTickMillis + ")"
+
+  /** target gets begin on the next tick, then a timingEvent every frame for duration ms, then end */
+  def animate(duration: Int, target: TimingTarget): Tween = {
+    val tween = new Tween(duration, target)
+    pending.synchronized { pending.add(tween) }
+    requestFrame
+    tween
+  }
+
+  /** runs action on the GL thread before the next frame is drawn */
+  def onNextTick(action: => Unit) = {
+    tasks.synchronized { tasks.add(() => action) }
+    requestFrame
+  }
+
+  def stageChanged(event: RenderingEvent) = {
+    if (running && event.getStage == RenderingEvent.BEFORE_RENDERING) tick(System.currentTimeMillis)
+  }
+
+  private def requestFrame = if (wwd != null) wwd.redraw
+
+  def tick(now: Long) = {
+    val startTime = System.nanoTime
+    pending.synchronized {
+      active.addAll(pending)
+      pending.clear
+    }
+    tasks.synchronized {
+      var i = 0
+      while (i < tasks.size) {
+        tasks.get(i)()
+        i += 1
+      }
+      tasks.clear
+    }
+
+    timingEvent()
+
+    var live = 0	//finished tweens get squeezed out in the same pass
+    var i = 0
+    while (i < active.size) {
+      val tween = active.get(i)
+      if (!tween.step(now)) {
+        active.set(live, tween)
+        live += 1
+      }
+      i += 1
+    }
+    while (active.size > live) active.remove(active.size - 1)
+
+    numTweens = live + pending.synchronized { pending.size }
+    if (numTweens > 0) requestFrame
+
+    lastTickNanos = System.nanoTime - startTime
+    totalTickNanos += lastTickNanos
+    numTicks += 1
+    if (numTicks % reportInterval == 0) println(this)
+  }
+
+  def start = running = true
+  def stop = running = false
+  def setResolution(resolution: Int) = {}	//one tick per frame
+  def setStartDelay(delay: Int) = {}
+}
+
+class Tween(val duration: Int, val target: TimingTarget) {
+  private var startTime = -1L
+  @volatile private var cancelled = false
+
+  def cancel = cancelled = true
+
+  /** returns true once the tween is done and can be dropped */
+  def step(now: Long): Boolean = {
+    if (cancelled) return true
+    if (startTime < 0) {
+      startTime = now
+      target.begin
+    }
+    val fraction = ((now - startTime).toFloat / duration) min 1f
+    target.timingEvent(fraction)
+    if (fraction < 1f) return false
+    target.end
+    true
+  }
+}
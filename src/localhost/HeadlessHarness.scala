@@ -0,0 +1,151 @@
+package localhost
+
+import gov.nasa.worldwind.geom.{Position, Sector}
+import gov.nasa.worldwind.globes.Earth
+import gov.nasa.worldwind.layers.LayerList
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.util.concurrent.LinkedBlockingQueue
+import scala.actors.Actor._
+
+/**
+ * Runs the show without OpenGL so it can be benchmarked and soak tested on machines
+ * with no GPU. Trees come out of a TreeCache file through a TweetHandler (fetchers,
+ * acceptance, layout), get played by a TreePlayback into a plain LayerList with a
+ * StubCamera, and the AnimationScheduler and a ManualTimeline are stepped by hand on a
+ * virtual clock, frameMillis per frame, as fast as the CPU allows. Prints time and
+ * allocation per stage at the end.
+ *
+ * usage: HeadlessHarness [tree cache file] [number of trees] [trees at once]
+ */
+object HeadlessHarness {
+  val frameMillis = 16
+
+  def main(args: Array[String]) = {
+    System.setProperty("java.awt.headless", "true")
+    val file = new File(if (args.length > 0) args(0) else "tree-cache.bin")
+    val numTrees = if (args.length > 1) args(1).toInt else 50
+    val numConcurrentTrees = if (args.length > 2) args(2).toInt else 1
+
+    val cache = new TreeCache(file, Math.MAX_LONG)
+    if (cache.numTrees == 0) {
+      println("no trees in " + file + ", run the app with the SqlTreeSource first to fill it")
+      System.exit(1)
+    }
+    val globe = new Earth
+
+    val load = new Stage("load")
+    val layout = new Stage("layout")
+    cache.entries.foreach(e => {
+      load.time { cache.get(e._1, e._2) }.foreach(root => layout.time { TweetTree.fromTweet(root, false, globe) })
+    })
+
+    val trees = new LinkedBlockingQueue[TweetTree]
+    val collector = actor {
+      loop {
+        react {
+          case tree: TweetTree => trees.put(tree)
+        }
+      }
+    }
+    val handler = new TweetHandler(collector, globe, new CachedTreeSource(cache))
+
+    val layers = new LayerList
+    val camera = new StubCamera
+    val scheduler = new AnimationScheduler(null)
+    val timeline = new ManualTimeline
+    var numFinished = 0
+    val playback = new TreePlayback(layers, camera, scheduler, timeline, numConcurrentTrees == 1, tree => (), tree => numFinished += 1)
+
+    val queueWait = new Stage("queue wait")
+    val play = new Stage("play")
+    val steps = new Stage("timeline steps")
+    val ticks = new Stage("animation tick")
+
+    val startTime = System.currentTimeMillis
+    var now = 0L
+    var numStarted = 0
+    for (i <- 0 until numConcurrentTrees) handler.requestTree
+
+    while (numFinished < numTrees) {
+      while (numStarted - numFinished < numConcurrentTrees && numStarted < numTrees) {
+        val tree = queueWait.time { trees.take }
+        handler.requestTree
+        play.time { playback.play(tree, tree.root.position) }
+        numStarted += 1
+      }
+      now += frameMillis
+      steps.time { timeline.advanceTo(now) }
+      ticks.time { scheduler.tick(now) }
+    }
+
+    val wallMillis = System.currentTimeMillis - startTime
+    println("played " + numFinished + " trees in " + wallMillis + "ms, " + (now / 1000) + "s of show time, " +
+            (numFinished * 1000.0 / (wallMillis max 1)) + " trees/s, " + (now.toDouble / (wallMillis max 1)) + "x real time")
+    List(load, layout, queueWait, play, steps, ticks).foreach(println(_))
+    println("fetch (fetcher threads): avgMillis=" + handler.averageFetchMillis)
+    println(PipelineStats.report)
+    println(scheduler)
+    println(playback.layerPool)
+    println("camera flights: " + camera.numFlights + ", layers: " + layers.size)
+    System.exit(0)
+  }
+}
+
+/** one stage of the pipeline, timed on the thread that runs it */
+class Stage(val name: String) {
+  private val threads = ManagementFactory.getThreadMXBean match {
+    case b: com.sun.management.ThreadMXBean => b
+    case _ => null
+  }
+  var count = 0L
+  var totalNanos = 0L
+  var maxNanos = 0L
+  var allocatedBytes = 0L
+
+  def time[T](f: => T): T = {
+    val startBytes = allocated
+    val startTime = System.nanoTime
+    val result = f
+    val nanos = System.nanoTime - startTime
+    allocatedBytes += allocated - startBytes
+    totalNanos += nanos
+    maxNanos = maxNanos max nanos
+    count += 1
+    result
+  }
+
+  private def allocated = if (threads == null) 0L else threads.getThreadAllocatedBytes(Thread.currentThread.getId)
+
+  override def toString = name + ": n=" + count + " avgMicros=" + (totalNanos / (count max 1) / 1000) +
+                          " maxMicros=" + (maxNanos / 1000) + " avgBytes=" + (allocatedBytes / (count max 1))
+}
+
+/** a Camera that just remembers where it was sent */
+class StubCamera extends Camera {
+  var eyePosition = Position.fromDegrees(0, 0, 0)
+  var numFlights = 0
+
+  def flyTo(from: Position, to: Position, duration: Int) = {
+    eyePosition = to
+    numFlights += 1
+  }
+
+  def flyOver(sector: Sector, duration: Int) = flyTo(eyePosition, new Position(sector.getCentroid, 0), duration)
+}
+
+/** hands out every tree in a TreeCache as an old tree, round and round */
+class CachedTreeSource(val cache: TreeCache) extends TreeSource {
+  private val entries = cache.entries.toArray
+  private var next = 0
+
+  def nextNewTree: Option[Tweet] = None
+
+  def nextOldTree: Option[Tweet] = {
+    val e = synchronized {
+      next += 1
+      entries((next - 1) % entries.length)
+    }
+    cache.get(e._1, e._2)
+  }
+}
@@ -0,0 +1,54 @@
+package localhost
+
+import net.liftweb.mapper._
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * Polls for root tweets newer than the watermark every pollInterval ms, oldest first 
+ * and at most batchSize per query, and lines them up in order for nextRoot. Only polls 
+ * again once the last batch has been used up.
+ */
+class NewRootPoller(startAfter: Long) extends Thread("new root poller") {
+  val pollInterval = 5000
+  val batchSize = 20
+  
+  @volatile var watermark = startAfter
+  @volatile var lastPollMillis = 0L
+  private val roots = new LinkedBlockingQueue[Tweet]
+  
+  setDaemon(true)
+  
+  def nextRoot: Option[Tweet] = {
+    val root = roots.poll
+    if (root == null) None else Some(root)
+  }
+  
+  def numWaiting = roots.size
+  
+  override def run = {
+    while (true) {
+      try {
+        if (roots.isEmpty) poll
+        Thread.sleep(pollInterval)
+      } catch {
+        case e: Exception => {
+          e.printStackTrace
+          Thread.sleep(pollInterval)
+        }
+      }
+    }
+  }
+  
+  private def poll = {
+    val startTime = System.currentTimeMillis
+    val batch = Tweet.findAll(NullRef(Tweet.parentId), By_>(Tweet.tweetId, watermark), 
+                              OrderBy(Tweet.tweetId, Ascending), MaxRows(batchSize))
+    lastPollMillis = System.currentTimeMillis - startTime
+    
+    if (!batch.isEmpty) {
+      watermark = batch.last.tweetId.is
+      batch.foreach(roots.put(_))
+      println("found " + batch.length + " new roots up to " + watermark + " in " + lastPollMillis + "ms")
+    }
+  }
+}
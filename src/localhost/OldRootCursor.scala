@@ -0,0 +1,40 @@
+package localhost
+
+import net.liftweb.mapper._
+
+/**
+ * Walks the old root tweets in tweet_id order, pageSize roots per query. Each page 
+ * starts after the last tweet_id seen instead of at an OFFSET, so the query costs the 
+ * same no matter how far into the table we are. Wraps back to the start at the end.
+ */
+class OldRootCursor(val pageSize: Int) {
+  private var lastTweetId = 0L
+  private var page: List[Tweet] = Nil
+  var numPasses = 0
+  
+  def next: Option[Tweet] = synchronized {
+    if (page.isEmpty) {
+      page = fetchPage
+      if (page.isEmpty && lastTweetId > 0) {
+        lastTweetId = 0L
+        numPasses += 1
+        page = fetchPage
+      }
+    }
+    
+    page match {
+      case t :: rest => {
+        page = rest
+        Some(t)
+      }
+      case Nil => None
+    }
+  }
+  
+  private def fetchPage: List[Tweet] = {
+    val newPage = Tweet.findAll(NullRef(Tweet.parentId), By_>(Tweet.numRetweets, 2), By_>(Tweet.tweetId, lastTweetId), 
+                                OrderBy(Tweet.tweetId, Ascending), MaxRows(pageSize))
+    if (!newPage.isEmpty) lastTweetId = newPage.last.tweetId.is
+    newPage
+  }
+}
@@ -0,0 +1,148 @@
+package localhost
+
+import gov.nasa.worldwind.WorldWindow
+import gov.nasa.worldwind.event.{RenderingEvent, RenderingListener}
+import java.lang.management.ManagementFactory
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray}
+import javax.management.ObjectName
+
+/** what jconsole sees of a LatencyHistogram */
+trait LatencyHistogramMBean {
+  def getCount: Long
+  def getMeanMillis: Double
+  def getP50Millis: Double
+  def getP99Millis: Double
+  def getMaxMillis: Double
+  def reset: Unit
+}
+
+/**
+ * Latencies of one pipeline stage in power of two buckets of microseconds, so
+ * percentiles are good to a factor of two. Recording is a few atomic adds and takes no
+ * locks, it is called from the fetchers, the actors, the timeline and the GL thread.
+ */
+class LatencyHistogram(val name: String) extends LatencyHistogramMBean {
+  val numBuckets = 40	//bucket i holds latencies under 2^i microseconds
+  private val buckets = new AtomicLongArray(numBuckets)
+  private val count = new AtomicLong
+  private val totalNanos = new AtomicLong
+  private val maxNanos = new AtomicLong
+
+  /** anything under 0 (early rather than late) counts as 0 */
+  def record(nanos: Long): Unit = {
+    val n = nanos max 0
+    buckets.incrementAndGet((64 - java.lang.Long.numberOfLeadingZeros(n / 1000)) min (numBuckets - 1))
+    count.incrementAndGet
+    totalNanos.addAndGet(n)
+    var max = maxNanos.get
+    while (n > max && !maxNanos.compareAndSet(max, n)) max = maxNanos.get
+  }
+
+  def time[T](f: => T): T = {
+    val startTime = System.nanoTime
+    try {
+      f
+    } finally {
+      record(System.nanoTime - startTime)
+    }
+  }
+
+  /** upper bound of the bucket the pth fraction of latencies falls in */
+  def percentileMillis(p: Double): Double = {
+    val n = count.get
+    if (n == 0) return 0
+    val rank = Math.ceil(p * n).toLong max 1
+    var seen = 0L
+    for (i <- 0 until numBuckets) {
+      seen += buckets.get(i)
+      if (seen >= rank) return (1L << i) / 1000.0
+    }
+    getMaxMillis
+  }
+
+  def getCount = count.get
+  def getMeanMillis = totalNanos.get / (count.get max 1) / 1000000.0
+  def getP50Millis = percentileMillis(0.5)
+  def getP99Millis = percentileMillis(0.99)
+  def getMaxMillis = maxNanos.get / 1000000.0
+
+  def reset = {
+    for (i <- 0 until numBuckets) buckets.set(i, 0)
+    count.set(0)
+    totalNanos.set(0)
+    maxNanos.set(0)
+  }
+
+  override def toString = name + " n=" + getCount + " mean=" + format(getMeanMillis) + " p50<" + format(getP50Millis) +
+                          " p99<" + format(getP99Millis) + " max=" + format(getMaxMillis) + "ms"
+
+  private def format(millis: Double) = Math.round(millis * 10) / 10.0
+}
+
+/**
+ * Where the time goes between asking the database for a tree and its last line fading
+ * out, one LatencyHistogram per stage. query (finding the next root), treeLoad (its
+ * tree, from MySQL, the TreeCache or the forest), treeBuild and acceptance run on the
+ * fetcher threads, queueWait is how long a requested tree took to show up
+ * (the fetchers falling behind), cameraFlight, childAnimation and fade are how late the
+ * timeline and the GL thread ran against what was asked for, annotation is the GL side
+ * of adding a tweet.
+ *
+ * The stages are registered with JMX under localhost:type=PipelineStats, printed every
+ * reportInterval ms, and added to a WorldWindow's per-frame PerformanceStatistics (key
+ * statisticKey + stage name) once attach is called. attach also adds those keys to the
+ * ones the WorldWindow collects, a DrawContext drops statistics whose key isn't listed.
+ */
+object PipelineStats {
+  val reportInterval = 60000
+  val statisticKey = "localhost.perfstat."
+
+  val query = new LatencyHistogram("query")
+  val treeLoad = new LatencyHistogram("treeLoad")
+  val treeBuild = new LatencyHistogram("treeBuild")
+  val acceptance = new LatencyHistogram("acceptance")
+  val queueWait = new LatencyHistogram("queueWait")
+  val cameraFlight = new LatencyHistogram("cameraFlight")
+  val annotation = new LatencyHistogram("annotation")
+  val childAnimation = new LatencyHistogram("childAnimation")
+  val fade = new LatencyHistogram("fade")
+  val stages = List(query, treeLoad, treeBuild, acceptance, queueWait, cameraFlight, annotation, childAnimation, fade)
+
+  try {
+    val server = ManagementFactory.getPlatformMBeanServer
+    stages.foreach(s => server.registerMBean(s, new ObjectName("localhost:type=PipelineStats,name=" + s.name)))
+  } catch {
+    case e: Exception => println("PipelineStats not registered with JMX: " + e)	//the numbers still get printed
+  }
+
+  private val reporter = new Thread("pipeline stats") {
+    override def run = {
+      while (true) {
+        Thread.sleep(reportInterval)
+        println(report)
+      }
+    }
+  }
+  reporter.setDaemon(true)
+  reporter.start()
+
+  def report = stages.filter(_.getCount > 0).mkString("pipeline: ", " | ", "")
+
+  /** adds every stage to wwd's per-frame statistics, right after the frame they would be shown in is drawn */
+  def attach(wwd: WorldWindow) = {
+    val keys = new java.util.HashSet[String]
+    val current = wwd.getSceneController.getDrawContext.getPerFrameStatisticsKeys	//null before the first frame
+    if (current != null) keys.addAll(current)
+    stages.foreach(s => keys.add(statisticKey + s.name))
+    wwd.setPerFrameStatisticsKeys(keys)
+
+    wwd.addRenderingListener(new RenderingListener {
+      def stageChanged(event: RenderingEvent) = {
+        if (event.getStage == RenderingEvent.BEFORE_BUFFER_SWAP) {
+          val dc = wwd.getSceneController.getDrawContext
+          stages.foreach(s => dc.setPerFrameStatistic(statisticKey + s.name, "Pipeline " + s.name + " p99 (ms)", s.getP99Millis))
+        }
+      }
+    })
+  }
+}
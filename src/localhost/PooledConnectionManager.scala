@@ -0,0 +1,117 @@
+package localhost
+
+import net.liftweb.util.{Can, Full, Empty}
+import net.liftweb.mapper._
+import java.sql.{Connection, DriverManager, SQLException}
+import java.util.concurrent.{LinkedBlockingDeque, Semaphore, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+/**
+ * Lift ConnectionManager that hands out at most maxConnections JDBC connections and 
+ * keeps released ones around instead of closing them. A connection that has sat idle 
+ * for longer than validateAfterIdle is pinged before it is handed out again. Statement 
+ * reuse is left to the driver's per-connection cache, see the url in DBVendor.
+ */
+class PooledConnectionManager(val driverClass: String, val url: String, val maxConnections: Int) extends ConnectionManager {
+  var validateAfterIdle = 30000L
+  var maxWait = 30000L
+  
+  private val idle = new LinkedBlockingDeque[IdleConnection]
+  private val permits = new Semaphore(maxConnections, true)
+  
+  private val numInUse = new AtomicInteger(0)
+  private val numOpened = new AtomicInteger(0)
+  private val numCheckouts = new AtomicLong(0)
+  private val totalWaitNanos = new AtomicLong(0)
+  private val maxWaitNanos = new AtomicLong(0)
+  
+  Class.forName(driverClass)
+  
+  def newConnection(name: ConnectionIdentifier): Can[Connection] = {
+    val startTime = System.nanoTime
+    if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+      println("timed out waiting for a database connection  " + this)
+      return Empty
+    }
+    recordWait(System.nanoTime - startTime)
+    
+    try {
+      val conn = checkOut
+      numInUse.incrementAndGet
+      Full(conn)
+    } catch {
+      case e : Exception => {
+        permits.release
+        e.printStackTrace
+        Empty
+      }
+    }
+  }
+  
+  def releaseConnection(conn: Connection) {
+    try {
+      if (conn.isClosed) numOpened.decrementAndGet
+      else idle.offerFirst(IdleConnection(conn, System.currentTimeMillis))	//most recently used goes out first
+    } catch {
+      case e: SQLException => closeQuietly(conn)
+    } finally {
+      numInUse.decrementAndGet
+      permits.release
+    }
+  }
+  
+  def inUse = numInUse.get
+  def idleCount = idle.size
+  def utilization = numInUse.get.toDouble / maxConnections
+  def averageWaitMillis = totalWaitNanos.get / (numCheckouts.get max 1) / 1000000.0
+  def maxWaitMillis = maxWaitNanos.get / 1000000.0
+  
+  override def toString = "pool(inUse=" + inUse + "/" + maxConnections + " idle=" + idleCount + " opened=" + numOpened.get + 
+                          " avgWaitMs=" + averageWaitMillis + " maxWaitMs=" + maxWaitMillis + ")"
+  
+  private def checkOut: Connection = {
+    var candidate = idle.pollFirst
+    while (candidate != null) {
+      if (isUsable(candidate)) return candidate.conn
+      closeQuietly(candidate.conn)
+      candidate = idle.pollFirst
+    }
+    
+    val conn = DriverManager.getConnection(url)	//counted only once it is open, this can throw
+    numOpened.incrementAndGet
+    conn
+  }
+  
+  private def isUsable(c: IdleConnection): Boolean = {
+    if (System.currentTimeMillis - c.releasedAt < validateAfterIdle) return true
+    try {
+      c.conn match {
+        case mysqlConn: com.mysql.jdbc.Connection => mysqlConn.ping
+        case other => other.createStatement.close
+      }
+      true
+    } catch {
+      case e: SQLException => false
+    }
+  }
+  
+  private def recordWait(nanos: Long) = {
+    numCheckouts.incrementAndGet
+    totalWaitNanos.addAndGet(nanos)
+    var max = maxWaitNanos.get
+    while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+      max = maxWaitNanos.get
+    }
+  }
+  
+  private def closeQuietly(conn: Connection) = {
+    try {
+      numOpened.decrementAndGet
+      conn.close
+    } catch {
+      case e: SQLException => 
+    }
+  }
+}
+
+case class IdleConnection(conn: Connection, releasedAt: Long)
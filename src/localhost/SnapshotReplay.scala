@@ -0,0 +1,109 @@
+package localhost
+
+import gov.nasa.worldwind.geom.{Position, Sector}
+import gov.nasa.worldwind.globes.Globe
+import org.jdesktop.animation.timing.TimingTargetAdapter
+import scala.collection.mutable.{HashMap, Queue}
+
+/**
+ * Plays back a TweetSnapshot speed times faster than it happened, through the same
+ * TreePlayback the live show uses. A root shows up as a new tree (fading the older ones
+ * like always), a retweet grows a line from its parent in the tree it belongs to. A
+ * retweet whose tree was already faded out or started before the replay is skipped.
+ *
+ * The whole replay is one tween on the AnimationScheduler, so it is driven by the same
+ * frames as everything else: every tick turns the tween's fraction into a snapshot time
+ * and plays the tweets up to it. The snapshot is sorted by time, so finding the due ones
+ * is just moving a cursor, at most maxEventsPerTick per frame so a burst can't stall
+ * the GL thread; the rest wait for the next frame.
+ */
+class SnapshotReplay(val snapshot: TweetSnapshot, val speed: Double, val playback: TreePlayback, val globe: Globe) extends TimingTargetAdapter {
+  val maxEventsPerTick = 2000
+  val lineDuration = 1500
+  val reportInterval = 10000	//events between printed stats
+  val cameraInterval = playback.animDuration + playback.readDuration	//the camera only moves for a root this often
+
+  private var next = 0
+  private val trees = new HashMap[Int, Pair[TweetTree, TreeLayers]]	//root slot -> tree on the globe
+  private val treeOrder = new Queue[Int]
+  private var lastFlight = -cameraInterval.toLong
+  private var numRoots = 0L
+  private var numRetweets = 0L
+  private var numSkipped = 0L
+  private var numLate = 0L	//ticks that hit maxEventsPerTick
+
+  def span = snapshot.endTime - snapshot.startTime
+  def duration: Int = ((span / speed) min Math.MAX_INT max 1).toInt
+  def numEvents = numRoots + numRetweets + numSkipped
+
+  override def toString = "replay(at " + next + "/" + snapshot.size + " roots=" + numRoots + " retweets=" + numRetweets +
+                          " skipped=" + numSkipped + " lateTicks=" + numLate + ")"
+
+  def start = {
+    println("replaying " + snapshot.size + " tweets, " + (span / 1000) + "s at " + speed + "x in " + (duration / 1000) + "s")
+    playback.scheduler.animate(duration, this)
+  }
+
+  override def timingEvent(fraction: Float) = {
+    val replayTime = snapshot.startTime + (fraction.toDouble * span).toLong
+    val wallTime = ((replayTime - snapshot.startTime) / speed).toLong
+    val last = if (fraction >= 1f) snapshot.size else snapshot.slotAfter(replayTime)
+    var n = 0
+    while (next < last && n < maxEventsPerTick) {
+      play(next, wallTime)
+      next += 1
+      n += 1
+      if (numEvents % reportInterval == 0) println(this)
+    }
+    if (next < last) numLate += 1
+  }
+
+  override def end = {
+    while (next < snapshot.size) {	//the last tick may have left some behind
+      play(next, Math.MAX_LONG)
+      next += 1
+    }
+    println("replay done, " + this)
+  }
+
+  private def position(slot: Int) = Position.fromDegrees(snapshot.lats(slot), snapshot.lons(slot), 0)
+
+  private def play(slot: Int, wallTime: Long) = {
+    if (snapshot.isRoot(slot)) playRoot(slot, wallTime)
+    else playRetweet(slot)
+  }
+
+  private def playRoot(slot: Int, wallTime: Long) = {
+    val pos = position(slot)
+    val node = new TweetNode(snapshot.tweetIds(slot), snapshot.texts(slot), pos, globe.computePointFromPosition(pos), Nil, -1)
+    val tree = new TweetTree(node, new TreeStyle(TweetTree.randomColor, false), 1, Sector.boundingSector(pos, pos))
+    val layers = playback.layerPool.acquire(tree)
+    layers.annotations.addAnnotation(new TweetAnnotation(node.text, pos, tree.style, true))
+    playback.addTreeLayers(layers)
+
+    trees(slot) = Pair(tree, layers)
+    treeOrder.enqueue(slot)
+    if (treeOrder.length > playback.maxNumTrees) trees -= treeOrder.dequeue	//addTreeLayers has let go of it
+
+    if (wallTime - lastFlight >= cameraInterval) {
+      playback.camera.flyTo(playback.camera.eyePosition, pos, playback.animDuration)
+      lastFlight = wallTime
+    }
+    numRoots += 1
+  }
+
+  private def playRetweet(slot: Int) = trees.get(snapshot.rootSlots(slot)) match {
+    case Some(Pair(tree, layers)) if layers.owner eq tree => {
+      val from = position(snapshot.parentSlots(slot))
+      val anno = new TweetAnnotation(snapshot.texts(slot), from, tree.style, false)
+      layers.annotations.addAnnotation(anno)
+      val line = new AnimatedAnnotatedLine(from, position(slot), anno, tree.style, false, layers.lines)
+      layers.lines.addRenderable(line)
+      playback.scheduler.animate(lineDuration, new TimingTargetAdapter {
+        override def timingEvent(fraction: Float) = line.updateLine(fraction)
+      })
+      numRetweets += 1
+    }
+    case _ => numSkipped += 1
+  }
+}
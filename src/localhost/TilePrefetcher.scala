@@ -0,0 +1,161 @@
+package localhost
+
+import gov.nasa.worldwind.{WorldWind, WorldWindow}
+import gov.nasa.worldwind.geom.{Angle, Position, Sector}
+import gov.nasa.worldwind.layers.{BasicTiledImageLayer, TextureTile}
+import gov.nasa.worldwind.util.{Level, Tile}
+import java.util.concurrent.{ConcurrentLinkedQueue, LinkedBlockingQueue, TimeUnit}
+
+/**
+ * Gets imagery and elevations onto disk before the camera gets there. We already know
+ * where it is going: the root of every tree in TweetHandler's queues, handed to prefetch
+ * as soon as it is queued, then down the followed branch one child at a time, at the
+ * altitude it is flying at now. For each stop the sector the view will cover is worked
+ * out, and every image tile missing from the file cache at the level the view will want
+ * gets queued with the retrieval service at the lowest priority. The elevation model is
+ * asked for the same sector, which makes it request whatever tiles it is missing.
+ * arrived checks how many of the tiles for a view are on disk when the camera gets there.
+ * The check looks at the file cache, so arrived only queues it. The prefetcher thread
+ * does it between tile requests, so the timeline calling arrived never waits on the disk.
+ */
+class TilePrefetcher(val wwd: WorldWindow) extends Thread("tile prefetcher") {
+  val maxStops = 12	//per tree, the followed branch can be long
+  val maxTilesPerStop = 16
+  val maxPending = 20	//leaves the retrieval service room for whatever is on screen
+  val lowPriority = Math.MAX_DOUBLE
+  val checkInterval = 250	//ms
+
+  private val trees = new LinkedBlockingQueue[TweetTree](32)
+  private val arrivals = new ConcurrentLinkedQueue[(Sector, Double)]	//view sector and meters per pixel
+  @volatile var numRequested = 0L
+  @volatile private var sharpnessSum = 0.0
+  @volatile private var numArrivals = 0
+
+  setDaemon(true)
+  setPriority(Thread.MIN_PRIORITY)
+
+  def averageSharpness = sharpnessSum / (numArrivals max 1)
+
+  override def toString = "prefetcher(requested=" + numRequested + " waiting=" + trees.size + " avgSharpness=" + averageSharpness + ")"
+
+  /** drops the tree if too many are already waiting, the ones in front play first anyway */
+  def prefetch(tree: TweetTree) = trees.offer(tree)
+
+  /** queues a check of the fraction of the image tiles a view at position needs that are on disk */
+  def arrived(position: Position) = arrivals.add((viewSector(position), metersPerPixel))
+
+  override def run = {
+    while (true) {
+      try {
+        checkArrivals
+        val tree = trees.poll(checkInterval, TimeUnit.MILLISECONDS)
+        if (tree != null) cameraPath(tree.root, maxStops).foreach(prefetchStop(_))
+      } catch {
+        case e: Exception => e.printStackTrace
+      }
+    }
+  }
+
+  private def checkArrivals: Unit = {
+    val arrival = arrivals.poll
+    if (arrival == null) return
+    val (sector, resolution) = arrival
+    var needed = 0
+    var cached = 0
+    imageLayers.foreach(layer => {
+      tilesFor(layer, sector, resolution).foreach(tile => {
+        needed += 1
+        if (layer.isTextureCached(tile)) cached += 1
+      })
+    })
+    sharpnessSum += (if (needed == 0) 1.0 else cached.toDouble / needed)
+    numArrivals += 1
+    println("  arrived with " + cached + "/" + needed + " tiles on disk, " + this)
+    checkArrivals
+  }
+
+  private def cameraPath(node: TweetNode, n: Int): List[Position] = {
+    if (n == 0) Nil
+    else if (node.followIndex < 0) List(node.position)
+    else node.position :: cameraPath(node.children(node.followIndex), n - 1)
+  }
+
+  private def prefetchStop(position: Position) = {
+    val sector = viewSector(position)
+    val elevations = wwd.getModel.getGlobe.getElevationModel
+    elevations.getElevations(sector, elevations.getTargetResolution(wwd.getModel.getGlobe, metersPerPixel))
+
+    imageLayers.foreach(layer => {
+      tilesFor(layer, sector, metersPerPixel).filter(!layer.isTextureCached(_)).foreach(tile => {
+        while (WorldWind.getRetrievalService.getNumRetrieversPending > maxPending) {
+          checkArrivals
+          Thread.sleep(checkInterval)
+        }
+        tile.setPriority(lowPriority)
+        if (layer.prefetchTexture(tile)) numRequested += 1
+      })
+      checkArrivals
+    })
+  }
+
+  private def imageLayers: List[BasicTiledImageLayer] = {
+    var layers: List[BasicTiledImageLayer] = Nil
+    val it = wwd.getModel.getLayers.iterator
+    while (it.hasNext) it.next match {
+      case l: BasicTiledImageLayer if l.isEnabled => layers = l :: layers
+      case _ =>
+    }
+    layers
+  }
+
+  // the camera keeps its altitude through a flight, so the view on arrival is as wide as it is now
+  private def viewWidth = {
+    val view = wwd.getView
+    2 * view.getCurrentEyePosition.getElevation * Math.tan(view.getFieldOfView.radians / 2)
+  }
+
+  private def metersPerPixel = viewWidth / (wwd.asInstanceOf[java.awt.Component].getWidth max 1)
+
+  private def viewSector(position: Position): Sector = {
+    val radius = wwd.getModel.getGlobe.getRadiusAt(position.getLatitude, position.getLongitude)
+    val halfLat = Math.toDegrees(viewWidth / 2 / radius) min 90
+    val halfLon = halfLat / (Math.cos(position.getLatitude.radians) max 0.01) min 180
+    val lat = position.getLatitude.degrees
+    val lon = position.getLongitude.degrees
+    Sector.fromDegrees(-90.0 max (lat - halfLat), 90.0 min (lat + halfLat), -180.0 max (lon - halfLon), 180.0 min (lon + halfLon))
+  }
+
+  /** the tiles covering sector at the first level as fine as resolution, at most maxTilesPerStop */
+  private def tilesFor(layer: BasicTiledImageLayer, sector: Sector, resolution: Double): List[TextureTile] = {
+    val levels = layer.getLevels
+    val radius = wwd.getModel.getGlobe.getRadius
+    var level = levels.getLastLevel
+    val it = levels.getLevels.iterator
+    var found = false
+    while (!found && it.hasNext) {
+      val l = it.next
+      if (l.getTexelSize(radius) < resolution) {
+        level = l
+        found = true
+      }
+    }
+    if (level.isEmpty) return Nil
+
+    val delta = level.getTileDelta
+    val nwRow = Tile.computeRow(delta.getLatitude, sector.getMaxLatitude)
+    val nwCol = Tile.computeColumn(delta.getLongitude, sector.getMinLongitude)
+    val seRow = Tile.computeRow(delta.getLatitude, sector.getMinLatitude)
+    val seCol = Tile.computeColumn(delta.getLongitude, sector.getMaxLongitude)
+
+    var tiles: List[TextureTile] = Nil
+    for (row <- seRow to nwRow; col <- nwCol to seCol) {
+      if (tiles.length < maxTilesPerStop) {
+        val minLat = Tile.computeRowLatitude(row, delta.getLatitude)
+        val minLon = Tile.computeColumnLongitude(col, delta.getLongitude)
+        val tile = new TextureTile(new Sector(minLat, minLat.add(delta.getLatitude), minLon, minLon.add(delta.getLongitude)), level, row, col)
+        if (!levels.isResourceAbsent(tile)) tiles = tile :: tiles
+      }
+    }
+    tiles
+  }
+}
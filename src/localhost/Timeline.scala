@@ -0,0 +1,74 @@
+package localhost
+
+import java.util.{Comparator, PriorityQueue}
+import java.util.concurrent.{ScheduledThreadPoolExecutor, ThreadFactory, TimeUnit}
+
+/** runs the show's timed steps (camera flights, read pauses, the next branch) */
+trait Timeline {
+  def after(delay: Long)(action: => Unit): Unit
+  def numScheduled: Int
+}
+
+/**
+ * Timed steps run from here instead of sleeping inside the actors. One thread waits on
+ * all of them, so the cadence doesn't depend on how many threads the actor scheduler
+ * happens to have.
+ */
+class ExecutorTimeline extends Timeline {
+  private val executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory {
+    def newThread(r: Runnable) = {
+      val t = new Thread(r, "timeline")
+      t.setDaemon(true)
+      t
+    }
+  })
+
+  def numScheduled = executor.getQueue.size
+
+  def after(delay: Long)(action: => Unit): Unit = {
+    executor.schedule(new Runnable {
+      def run = {
+        try {
+          action
+        } catch {
+          case e: Exception => e.printStackTrace	//the executor would swallow it otherwise
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS)
+  }
+}
+
+/**
+ * A timeline on a clock that only moves when advanceTo is called, for running the show
+ * faster than real time. Steps that are due run in time order, steps due at the same
+ * time in the order they were scheduled.
+ */
+class ManualTimeline extends Timeline {
+  private var now = 0L
+  private var numAdded = 0L
+  private val steps = new PriorityQueue[TimelineStep](64, new Comparator[TimelineStep] {	//a heap, long runs schedule thousands of steps
+    def compare(a: TimelineStep, b: TimelineStep) =
+      if (a.time != b.time) (if (a.time < b.time) -1 else 1)
+      else if (a.seq < b.seq) -1 else if (a.seq > b.seq) 1 else 0
+  })
+
+  def numScheduled = steps.size
+  def time = now
+
+  def after(delay: Long)(action: => Unit): Unit = {
+    steps.add(new TimelineStep(now + delay, numAdded, () => action))
+    numAdded += 1
+  }
+
+  /** runs every step due by time, including ones those steps schedule */
+  def advanceTo(time: Long): Unit = {
+    while (!steps.isEmpty && steps.peek.time <= time) {
+      val step = steps.poll
+      now = step.time max now
+      step.action()
+    }
+    now = time
+  }
+}
+
+class TimelineStep(val time: Long, val seq: Long, val action: () => Unit)
@@ -0,0 +1,223 @@
+package localhost
+
+import java.io.{ByteArrayOutputStream, DataOutputStream, File, RandomAccessFile}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.nio.channels.FileChannel
+import scala.collection.mutable.HashMap
+
+/**
+ * Fully built trees kept on disk, keyed by root tweet_id, so the old-tweet rotation
+ * does not have to go back to MySQL for trees it has already shown. Every tree is
+ * stored with a marker (the newest tweet_id in the tree); a lookup with a different
+ * marker is a miss, and the fresh copy gets appended. The file is read and written
+ * through one memory map, scanned on startup so the cache is warm after a restart.
+ *
+ * The map grows by doubling. Before it grows, or once the file would pass maxBytes, the
+ * copies that fresher ones have replaced are compacted away when they take up at least
+ * half of it. If the live trees alone fill more than half of maxBytes the cache is
+ * thrown away and started over instead.
+ *
+ * record: magic, rootId, marker, payload length, then the nodes in pre-order as
+ * tweetId, parentId, lat, lon, parentDist, numRetweets, numChildren, author, original, time.
+ * The records end at the first int that isn't the magic.
+ */
+class TreeCache(val file: File, val maxBytes: Long) {
+  val Magic = 0x54524545	//"TREE"
+  val HeaderSize = 4 + 8 + 8 + 4
+  val MinMapSize = 1 << 20
+  val MaxMapSize = (Math.MAX_INT.toLong min maxBytes).toInt	//a MappedByteBuffer can't hold more
+
+  private val raf = new RandomAccessFile(file, "rw")
+  private val channel = raf.getChannel
+  private var map: MappedByteBuffer = null
+  private var end = 0	//where the next record goes
+  private var liveBytes = 0L	//in records the index still points to
+  private val index = new HashMap[Long, CacheEntry]
+
+  private var numHits = 0L
+  private var numMisses = 0L
+  private var numCompactions = 0
+
+  scan
+
+  def hits = synchronized { numHits }
+  def misses = synchronized { numMisses }
+  def hitRate = synchronized { numHits.toDouble / ((numHits + numMisses) max 1) }
+  def bytesUsed = synchronized { end }
+  def numTrees = synchronized { index.size }
+
+  /** rootId and marker of every tree held */
+  def entries: List[Pair[Long, Long]] = synchronized { index.toList.map(e => Pair(e._1, e._2.marker)) }
+
+  override def toString = "treeCache(trees=" + numTrees + " hitRate=" + hitRate + " bytes=" + bytesUsed + 
+                          " live=" + liveBytes + " compactions=" + numCompactions + ")"
+
+  def get(rootId: Long, marker: Long): Option[Tweet] = synchronized {
+    index.get(rootId) match {
+      case Some(entry) if entry.marker == marker => {
+        numHits += 1
+        val buf = map.duplicate
+        buf.position(entry.offset + HeaderSize)
+        Some(readTweet(buf))
+      }
+      case _ => {
+        numMisses += 1
+        None
+      }
+    }
+  }
+
+  def put(root: Tweet, marker: Long) = synchronized {
+    val bytes = new ByteArrayOutputStream
+    val out = new DataOutputStream(bytes)
+    writeTweet(root, out)
+    out.flush
+
+    val length = HeaderSize + bytes.size
+    if (!makeRoom(length)) {
+      println("  tree " + root.tweetId.is + " is too big for " + this)
+    } else {
+      val rootId = root.tweetId.is
+      index.get(rootId).foreach(old => liveBytes -= old.length)
+      writeHeader(end, rootId, marker, bytes.size)
+      map.position(end + HeaderSize)
+      map.put(bytes.toByteArray)
+      index(rootId) = CacheEntry(end, length, marker)
+      liveBytes += length
+      end += length
+      terminate
+    }
+  }
+
+  def clear = synchronized {
+    println("clearing " + this)
+    index.clear
+    end = 0
+    liveBytes = 0
+    terminate
+  }
+
+  /** makes sure length more bytes fit after end, returns false if they never will */
+  private def makeRoom(length: Int): Boolean = {
+    if (length > MaxMapSize / 2) return false
+    if (end.toLong + length <= map.capacity) return true
+
+    if (liveBytes + length > MaxMapSize / 2) clear
+    else if (end - liveBytes >= end / 2) compact
+    if (end.toLong + length > map.capacity) remap((map.capacity.toLong * 2) max (end.toLong + length))
+    true
+  }
+
+  /**
+   * moves the live records down over the replaced ones, in file order. The first record
+   * gets its magic back last, so a crash part way through leaves an empty cache behind
+   * instead of a broken one.
+   */
+  private def compact = {
+    val entries = index.toList.sort(_._2.offset < _._2.offset)
+    map.putInt(0, 0)
+    var to = 0
+    entries.foreach(e => {
+      val (rootId, entry) = e
+      if (entry.offset != to) {
+        val payload = new Array[Byte](entry.length - HeaderSize)
+        val src = map.duplicate
+        src.position(entry.offset + HeaderSize)
+        src.get(payload)
+        writeHeader(to, rootId, entry.marker, payload.length)
+        map.position(to + HeaderSize)
+        map.put(payload)
+      }
+      if (to == 0) map.putInt(0, 0)
+      index(rootId) = CacheEntry(to, entry.length, entry.marker)
+      to += entry.length
+    })
+    end = to
+    terminate
+    if (end > 0) map.putInt(0, Magic)
+    numCompactions += 1
+    println("compacted " + this)
+  }
+
+  private def writeHeader(offset: Int, rootId: Long, marker: Long, payloadLength: Int) = {
+    map.putInt(offset, Magic)
+    map.putLong(offset + 4, rootId)
+    map.putLong(offset + 12, marker)
+    map.putInt(offset + 20, payloadLength)
+  }
+
+  /** blanks the int after the last record, older records may still be behind it */
+  private def terminate = if (end + 4 <= map.capacity) map.putInt(end, 0)
+
+  private def remap(size: Long) = {
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size max channel.size min MaxMapSize)
+  }
+
+  /** rebuilds the index from the record headers, later records for a root win */
+  private def scan = {
+    remap(MinMapSize)
+    var done = false
+    while (!done && end + HeaderSize <= map.capacity && map.getInt(end) == Magic) {
+      val rootId = map.getLong(end + 4)
+      val marker = map.getLong(end + 12)
+      val length = HeaderSize + map.getInt(end + 20)
+      if (end.toLong + length > map.capacity) {	//torn write at the end
+        done = true
+      } else {
+        index.get(rootId).foreach(old => liveBytes -= old.length)
+        index(rootId) = CacheEntry(end, length, marker)
+        liveBytes += length
+        end += length
+      }
+    }
+    terminate
+    println("loaded " + this)
+  }
+
+  private def writeTweet(t: Tweet, out: DataOutputStream): Unit = {
+    out.writeLong(t.tweetId.is)
+    out.writeLong(t.parentId.is)
+    out.writeDouble(t.locLat.is)
+    out.writeDouble(t.locLon.is)
+    out.writeDouble(t.parentDist.is)
+    out.writeLong(t.numRetweets.is)
+    out.writeInt(t.children.length)
+    writeString(t.author.is, out)
+    writeString(t.original.is, out)
+    writeString(t.time.is, out)
+    t.children.foreach(writeTweet(_, out))
+  }
+
+  private def readTweet(buf: ByteBuffer): Tweet = {
+    val tweetId = buf.getLong
+    val parentId = buf.getLong
+    val lat = buf.getDouble
+    val lon = buf.getDouble
+    val parentDist = buf.getDouble
+    val numRetweets = buf.getLong
+    val numChildren = buf.getInt
+    val author = readString(buf)
+    val original = readString(buf)
+    val time = readString(buf)
+    val t = Tweet.build(tweetId, author, original, lat, lon, time, numRetweets, parentId, parentDist)
+
+    var children: List[Tweet] = Nil
+    for (i <- 0 until numChildren) children = readTweet(buf) :: children
+    t.children = children.reverse
+    t
+  }
+
+  private def writeString(s: String, out: DataOutputStream) = {
+    val bytes = (if (s == null) "" else s).getBytes("UTF-8")
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def readString(buf: ByteBuffer): String = {
+    val bytes = new Array[Byte](buf.getInt)
+    buf.get(bytes)
+    new String(bytes, "UTF-8")
+  }
+}
+
+case class CacheEntry(offset: Int, length: Int, marker: Long)
@@ -0,0 +1,81 @@
+package localhost
+
+import gov.nasa.worldwind.Disposable
+import gov.nasa.worldwind.layers.LayerList
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/** the two layers one tree is drawn in, owner is the tree using them right now */
+class TreeLayers {
+  val lines = new TreeLinesLayer
+  val annotations = new TreeAnnotationLayer
+  @volatile var owner: TweetTree = null
+
+  def setOpacity(opacity: Double) = {
+    lines.setOpacity(opacity)
+    annotations.setOpacity(opacity)
+  }
+
+  /** disposes every Disposable line and empties both layers */
+  def clear = {
+    lines.dispose
+    lines.removeAllRenderables
+    annotations.removeAllAnnotations
+    setOpacity(1)
+  }
+
+  def dispose = {
+    clear
+    annotations.dispose
+  }
+}
+
+/**
+ * Hands out the layers each tree is drawn in and takes them back once the tree has
+ * faded out. A retired pair is pulled off the LayerList and emptied on the GL thread,
+ * so no frame is ever drawing it at the time, and then kept for the next tree. Past
+ * maxIdle pairs the layers are disposed and dropped instead, so a display left running
+ * for weeks holds at most maxNumTrees + maxIdle pairs.
+ */
+class TreeLayerPool(val scheduler: AnimationScheduler, val maxIdle: Int) {
+  private val idle = new ConcurrentLinkedQueue[TreeLayers]
+  private val numLive = new AtomicInteger(0)
+  private val numCreated = new AtomicInteger(0)
+  private val numDisposed = new AtomicInteger(0)
+
+  def liveCount = numLive.get
+  def idleCount = idle.size
+  def createdCount = numCreated.get
+
+  override def toString = "layerPool(live=" + liveCount + " idle=" + idleCount + " created=" + createdCount +
+                          " disposed=" + numDisposed.get + ")"
+
+  def acquire(owner: TweetTree): TreeLayers = {
+    val layers = idle.poll match {
+      case null => {
+        numCreated.incrementAndGet
+        new TreeLayers
+      }
+      case l => l
+    }
+    layers.owner = owner
+    numLive.incrementAndGet
+    layers
+  }
+
+  def release(layers: TreeLayers, layerList: LayerList) = {
+    layers.owner = null	//anything still animating in this tree stops at its next step
+    numLive.decrementAndGet
+    scheduler.onNextTick {
+      layerList.remove(layers.lines)
+      layerList.remove(layers.annotations)
+      if (idle.size < maxIdle) {
+        layers.clear
+        idle.add(layers)
+      } else {
+        layers.dispose
+        numDisposed.incrementAndGet
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package localhost
+
+import gov.nasa.worldwind.WorldWindow
+import gov.nasa.worldwind.geom.{LatLon, Position, Sector}
+import gov.nasa.worldwind.layers.LayerList
+import gov.nasa.worldwind.view.{OrbitView, ScheduledOrbitViewStateIterator}
+import org.jdesktop.animation.timing.TimingTargetAdapter
+
+/** where trees get looked at from */
+trait Camera {
+  def eyePosition: Position
+  def flyTo(from: Position, to: Position, duration: Int): Unit
+  /** flies to the middle of sector, as high as it takes to see all of it */
+  def flyOver(sector: Sector, duration: Int): Unit
+}
+
+class ViewCamera(val wwd: WorldWindow) extends Camera {
+  def eyePosition = {
+    val eye = wwd.getView.getCurrentEyePosition
+    new Position(eye.getLatitude, eye.getLongitude, 0)
+  }
+
+  val minZoom = 1500000.0	//meters, so trees close together aren't looked at from right above
+  val fitMargin = 1.25
+
+  def flyTo(from: Position, to: Position, duration: Int) =
+    wwd.getView.applyStateIterator(ScheduledOrbitViewStateIterator.createCenterIterator(from, to, duration, true))
+
+  def flyOver(sector: Sector, duration: Int) = {
+    val view = wwd.getView.asInstanceOf[OrbitView]
+    val globe = wwd.getModel.getGlobe
+    val center = sector.getCentroid
+    val corners = List(LatLon.fromDegrees(sector.getMinLatitude.degrees, sector.getMinLongitude.degrees),
+                       LatLon.fromDegrees(sector.getMinLatitude.degrees, sector.getMaxLongitude.degrees),
+                       LatLon.fromDegrees(sector.getMaxLatitude.degrees, sector.getMinLongitude.degrees),
+                       LatLon.fromDegrees(sector.getMaxLatitude.degrees, sector.getMaxLongitude.degrees))
+    val radius = corners.foldLeft(0.0)((r, c) => r max LatLon.greatCircleDistance(center, c).radians) * globe.getRadius
+    val zoom = (radius * fitMargin / Math.tan(view.getFieldOfView.radians / 2)) max minZoom min (globe.getRadius * 4)
+    view.applyStateIterator(ScheduledOrbitViewStateIterator.createCenterZoomIterator(eyePosition, new Position(center, 0),
+                                                                                     view.getZoom, zoom, duration, true))
+  }
+}
+
+/**
+ * Plays trees: flies the camera to the root, shows the root's annotation, then grows
+ * every branch one level at a time with a read pause at each stop on the followed one.
+ * Older trees fade with every new one and go back to the layerPool after maxNumTrees.
+ * All it needs from the globe is a LayerList and a Camera, so it runs the same with or
+ * without a GL canvas. arrived is called when the camera gets to a root, finished when
+ * the followed branch reaches its leaf.
+ */
+class TreePlayback(val layerList: LayerList, val camera: Camera, val scheduler: AnimationScheduler, val timeline: Timeline,
+                   val followBranches: Boolean, val arrived: TweetTree => Unit, val finished: TweetTree => Unit) {
+  val maxNumTrees = 8
+  val animDuration = 3000
+  val readDuration = 4500
+  val layerPool = new TreeLayerPool(scheduler, 2)
+  private val treeLayers = new scala.collection.mutable.Queue[TreeLayers]	//oldest first
+
+  // flies the camera over and shows the root once the flight is done
+  def play(tree: TweetTree, cameraTarget: Position): Unit = {
+    camera.flyTo(camera.eyePosition, cameraTarget, animDuration)
+    afterFlight(tree)
+  }
+
+  /** like play, but the camera takes in all of extent instead of going to one point */
+  def play(tree: TweetTree, extent: Sector): Unit = {
+    camera.flyOver(extent, animDuration)
+    afterFlight(tree)
+  }
+
+  private def afterFlight(tree: TweetTree) = {
+    val startTime = System.nanoTime
+    timeline.after(animDuration) {
+      PipelineStats.cameraFlight.record(System.nanoTime - startTime - animDuration * 1000000L)	//how late the timeline ran
+      displayTreeRoot(tree)
+    }
+  }
+
+  def displayTreeRoot(tree: TweetTree): Unit = {
+    arrived(tree)
+    val layers = layerPool.acquire(tree)
+    PipelineStats.annotation.time {
+      layers.annotations.addAnnotation(new TweetAnnotation(tree.root.text, tree.root.position, tree.style, true))
+    }
+    addTreeLayers(layers)
+
+    val root = new TweetPackage(tree.root, true, tree, layers)
+    timeline.after(readDuration) { displayTweet(root) }
+  }
+
+  def displayTweet(t: TweetPackage): Unit = {
+    if (t.layers.owner ne t.tree) {	//faded out and handed back to the pool while still playing
+      if (t.followThis) finished(t.tree)
+      return
+    }
+    val newPos: Position = t.node.position
+    var index = 0
+
+    t.node.children.foreach(child => {
+      val followNext = (t.followThis && (t.node.followIndex == index))
+
+      val tweetAnno = PipelineStats.annotation.time {
+        val anno = new TweetAnnotation(child.text, newPos, t.tree.style, followNext)
+        t.layers.annotations.addAnnotation(anno)
+        anno
+      }
+      var line = new AnimatedAnnotatedLine(newPos, child.position, tweetAnno, t.tree.style, followNext, t.layers.lines)
+      t.layers.lines.addRenderable(line)
+
+      scheduler.animate(animDuration, new LineEventHandler(line, new TweetPackage(child, followNext, t.tree, t.layers)))
+
+      if (followNext && followBranches) {
+        camera.flyTo(newPos, child.position, animDuration)
+      }
+
+      index += 1
+    })
+
+    if (t.followThis && t.node.children.isEmpty) {
+      finished(t.tree)
+    }
+  }
+
+  // adds the new tree's layers to the end of the LayerList, drops the oldest tree once
+  // there are more than maxNumTrees and fades the rest by age. fading only sets the opacity of
+  // two layers per tree, the lines and annotations pick it up when they render
+  def addTreeLayers(newLayers: TreeLayers) = PipelineStats.fade.time {
+    layerList.add(newLayers.lines)
+    layerList.add(newLayers.annotations)
+    treeLayers.enqueue(newLayers)
+
+    if (treeLayers.length > maxNumTrees) {
+      layerPool.release(treeLayers.dequeue, layerList)
+      println("    " + layerPool)
+    }
+
+    var age = treeLayers.length - 1
+    treeLayers.foreach(l => {
+      l.setOpacity(1.0 - age.toDouble / maxNumTrees)
+      age -= 1
+    })
+  }
+
+  class LineEventHandler(line: AnimatedAnnotatedLine, t: TweetPackage) extends TimingTargetAdapter
+  {
+    private var startTime = 0L
+
+    override def begin = startTime = System.nanoTime
+
+    override def timingEvent(fraction: Float) = {
+      line.updateLine(fraction)
+    }
+
+    override def end = {
+      PipelineStats.childAnimation.record(System.nanoTime - startTime - animDuration * 1000000L)	//how late the frames ran
+      if (t.followThis) {
+        timeline.after(readDuration) { displayTweet(t) }
+      } else {
+        displayTweet(t)
+      }
+    }
+  }
+}
+
+case class TweetPackage(node: TweetNode, followThis: Boolean, tree: TweetTree, layers: TreeLayers)
@@ -0,0 +1,61 @@
+package localhost
+
+import net.liftweb.mapper._
+
+/**
+ * Where the TreeFetchers get their trees from. Trees come back with their children 
+ * populated; acceptance filtering is left to the TweetHandler. Finding the next root
+ * is timed as PipelineStats.query, loading its tree as PipelineStats.treeLoad.
+ */
+trait TreeSource {
+  def nextNewTree: Option[Tweet]
+  def nextOldTree: Option[Tweet]
+}
+
+/** 
+ * builds every tree straight from MySQL. Old roots come off tree_summaries once the 
+ * summarizer has caught up, until then every old root gets loaded and checked. Old
+ * trees found through their summaries go through the TreeCache.
+ */
+class SqlTreeSource extends TreeSource {
+  val numRootTweets = Tweet.count(NullRef(Tweet.parentId), By_>(Tweet.numRetweets, 2))
+  println(numRootTweets + " old roots with more than 2 retweets")
+  
+  private val oldRoots = new OldRootCursor(50)
+  private val acceptableRoots = new AcceptableRootCursor(50)
+  private val summarizer = new TreeSummarizer
+  summarizer.start()
+  private val newRoots = new NewRootPoller(Tweet.newestRootId)
+  newRoots.start()
+  private val cache = new TreeCache(new java.io.File("tree-cache.bin"), 256L * 1024 * 1024)
+  
+  def lastParentId = newRoots.watermark
+  
+  def nextNewTree: Option[Tweet] = {
+    PipelineStats.query.time { newRoots.nextRoot }.map(load(_))
+  }
+
+  def nextOldTree: Option[Tweet] = {
+    if (!summarizer.caughtUp) return PipelineStats.query.time { oldRoots.next }.map(load(_))
+
+    PipelineStats.query.time { acceptableRoots.next }.flatMap(summary => {
+      val rootId = summary.rootId.is
+      val marker = summary.lastTweetId.is
+      PipelineStats.treeLoad.time { cache.get(rootId, marker) } match {
+        case Some(root) => Some(root)
+        case None => PipelineStats.query.time { Tweet.find(By(Tweet.tweetId, rootId)) }.map(root => {
+          load(root)
+          cache.put(root, marker)
+          println("    " + cache)
+          root
+        })
+      }
+    })
+  }
+  
+  private def load(root: Tweet): Tweet = {
+    val stats = PipelineStats.treeLoad.time { root.recursivelyPopulateChildList }
+    println("    loaded " + stats + "  " + DBVendor)
+    root
+  }
+}
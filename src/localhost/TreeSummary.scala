@@ -0,0 +1,187 @@
+package localhost
+
+import net.liftweb.mapper._
+import net.liftweb.util.{Full, Empty}
+import scala.collection.mutable.{HashMap, HashSet}
+
+/**
+ * One row per root tweet with the statistics treeIsAcceptable looks at, so candidate
+ * roots can be filtered in SQL before any tree gets loaded. Kept up to date by the
+ * TreeSummarizer. lastTweetId is the newest tweet in the tree. The row for root 0, which
+ * no tweet has, holds the summarizer's watermark in lastTweetId instead.
+ */
+object TreeSummary extends TreeSummary with LongKeyedMetaMapper[TreeSummary] {
+  override def dbTableName = "tree_summaries"
+
+  def forRoot(rootId: Long): TreeSummary = find(By(TreeSummary.rootId, rootId)) openOr TreeSummary.create.rootId(rootId)
+
+  val watermarkRootId = 0L
+
+  /** the last tweet the summarizer has looked at, it resumes after this one */
+  def watermark: Long = find(By(rootId, watermarkRootId)).map(_.lastTweetId.is) openOr 0L
+
+  def saveWatermark(tweetId: Long) = forRoot(watermarkRootId).lastTweetId(tweetId).save
+}
+
+class TreeSummary extends LongKeyedMapper[TreeSummary] with IdPK {
+  def getSingleton = TreeSummary
+
+  object rootId extends MappedLong(this) {
+    override def dbColumnName = "root_id"
+    override def dbIndexed_? = true
+  }
+  object depth extends MappedInt(this)
+  object numDescendants extends MappedInt(this) { override def dbColumnName = "num_descendants" }
+  object numRetweets extends MappedLong(this) { override def dbColumnName = "num_retweets" }
+  object minDist extends MappedDouble(this) { override def dbColumnName = "min_dist" }
+  object avgDist extends MappedDouble(this) { override def dbColumnName = "avg_dist" }
+  object lastTweetId extends MappedLong(this) { override def dbColumnName = "last_tweet_id" }
+
+  def summarize(root: Tweet): TreeSummary = {
+    depth(root.depth)
+    numDescendants(root.descendantCount)
+    numRetweets(root.numRetweets.is)
+    minDist(root.minDist min Math.MAX_FLOAT)	//an empty tree has no min, keep it storable
+    avgDist(root.avgDist)
+    lastTweetId(root.descendants.foldLeft(root.tweetId.is)(_ max _.tweetId.is))
+  }
+}
+
+/** the thresholds treeIsAcceptable uses, shared with the SQL filter on tree_summaries */
+object TreeAcceptance {
+  val minRetweets = 2
+  val minDepth = 2
+  val minAvgDist = 2000.0
+  val minDist = 300.0
+
+  def apply(t: Tweet): Boolean =
+    ((t.numRetweets > minRetweets) && (t.depth >= minDepth) && (t.avgDist >= minAvgDist) && (t.minDist >= minDist))
+}
+
+/**
+ * Walks the tweets table in tweet_id order, batchSize rows at a time, works out which
+ * roots the new rows belong to and rewrites those roots' summaries. The first pass
+ * summarizes the whole table, afterwards it only looks at rows past the watermark saved
+ * after the last batch. Ancestors that aren't cached yet are loaded a level at a time.
+ */
+class TreeSummarizer extends Thread("tree summarizer") {
+  val batchSize = 500
+  val pollInterval = 30000
+  val maxCachedRoots = 200000
+
+  @volatile var caughtUp = false
+  @volatile var numSummarized = 0L
+
+  private var watermark = TreeSummary.watermark
+  private val rootOf = new HashMap[Long, Long]
+
+  setDaemon(true)
+
+  override def run = {
+    while (true) {
+      try {
+        if (summarizeBatch < batchSize) {
+          caughtUp = true
+          Thread.sleep(pollInterval)
+        }
+      } catch {
+        case e: Exception => {
+          e.printStackTrace
+          Thread.sleep(pollInterval)
+        }
+      }
+    }
+  }
+
+  /** returns the number of tweets looked at */
+  def summarizeBatch: Int = {
+    val batch = Tweet.findAll(By_>(Tweet.tweetId, watermark), OrderBy(Tweet.tweetId, Ascending), MaxRows(batchSize))
+    if (rootOf.size > maxCachedRoots) rootOf.clear
+
+    val roots = findRoots(batch)
+    roots.foreach(rootId => {
+      Tweet.find(By(Tweet.tweetId, rootId)).foreach(root => {
+        root.recursivelyPopulateChildList
+        TreeSummary.forRoot(rootId).summarize(root).save
+        numSummarized += 1
+      })
+    })
+
+    if (!batch.isEmpty) {
+      watermark = batch.last.tweetId.is
+      TreeSummary.saveWatermark(watermark)	//after the summaries, a crash in between only redoes this batch
+      println("summarized " + roots.size + " trees up to tweet " + watermark)
+    }
+    batch.length
+  }
+
+  private def findRoots(batch: List[Tweet]): HashSet[Long] = {
+    val parentOf = new HashMap[Long, Long]
+    batch.foreach(t => parentOf(t.tweetId.is) = t.parentId.is)
+    var missing = unknown(batch.map(_.parentId.is), parentOf)
+    while (!missing.isEmpty) {
+      val ancestors = TweetTreeLoader.findByIds(missing)
+      ancestors.foreach(t => parentOf(t.tweetId.is) = t.parentId.is)
+      missing.foreach(id => if (!parentOf.contains(id)) parentOf(id) = 0L)	//not in the table, it is its tree's root then
+      missing = unknown(ancestors.map(_.parentId.is), parentOf)
+    }
+
+    val roots = new HashSet[Long]
+    batch.foreach(t => roots += rootFor(t.tweetId.is, parentOf))
+    roots
+  }
+
+  private def unknown(ids: List[Long], parentOf: HashMap[Long, Long]): List[Long] =
+    ids.filter(id => id != 0 && !parentOf.contains(id) && !rootOf.contains(id)).removeDuplicates
+
+  private def rootFor(id: Long, parentOf: HashMap[Long, Long]): Long = rootOf.get(id) match {
+    case Some(r) => r
+    case None => {
+      val parentId = parentOf(id)
+      val root = if (parentId == 0) id else rootFor(parentId, parentOf)
+      rootOf(id) = root
+      root
+    }
+  }
+}
+
+/**
+ * Like OldRootCursor, but walks tree_summaries instead so only roots whose trees pass
+ * TreeAcceptance come back. Hands out the summaries, not the roots, so callers can 
+ * check the TreeCache before touching the tweets table.
+ */
+class AcceptableRootCursor(val pageSize: Int) {
+  private var lastRootId = 0L
+  private var page: List[TreeSummary] = Nil
+  var numPasses = 0
+
+  def next: Option[TreeSummary] = synchronized {
+    if (page.isEmpty) {
+      page = fetchPage
+      if (page.isEmpty && lastRootId > 0) {
+        lastRootId = 0L
+        numPasses += 1
+        page = fetchPage
+      }
+    }
+
+    page match {
+      case t :: rest => {
+        page = rest
+        Some(t)
+      }
+      case Nil => None
+    }
+  }
+
+  private def fetchPage: List[TreeSummary] = {
+    val summaries = TreeSummary.findAll(By_>(TreeSummary.rootId, lastRootId),
+                                        By_>(TreeSummary.numRetweets, TreeAcceptance.minRetweets.toLong),
+                                        Cmp(TreeSummary.depth, OprEnum.>=, Full(TreeAcceptance.minDepth), Empty),
+                                        Cmp(TreeSummary.avgDist, OprEnum.>=, Full(TreeAcceptance.minAvgDist), Empty),
+                                        Cmp(TreeSummary.minDist, OprEnum.>=, Full(TreeAcceptance.minDist), Empty),
+                                        OrderBy(TreeSummary.rootId, Ascending), MaxRows(pageSize))
+    if (!summaries.isEmpty) lastRootId = summaries.last.rootId.is
+    summaries
+  }
+}
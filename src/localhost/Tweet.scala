@@ -6,13 +6,42 @@ import net.liftweb.util.{Can, Full, Empty}
 import java.sql.Timestamp
 import java.util.Locale
 
-object Tweet extends Tweet with KeyedMetaMapper[Long, Tweet] { override def dbTableName = "tweets" }
+object Tweet extends Tweet with KeyedMetaMapper[Long, Tweet] { 
+  override def dbTableName = "tweets" 
+  
+  def newestRootId: Long = {
+    val (_, rows) = DB.runQuery("SELECT MAX(tweet_id) FROM tweets WHERE parent_id IS NULL")
+    rows match {
+      case List(List(max)) if max != null && max != "null" => max.toLong
+      case _ => 0L
+    }
+  }
+  
+  /** a detached Tweet for trees that are put together from somewhere other than the tweets table */
+  def build(tweetId: Long, author: String, original: String, lat: Double, lon: Double, time: String, 
+            numRetweets: Long, parentId: Long, parentDist: Double): Tweet = {
+    val t = create
+    t.tweetId.set(tweetId)
+    t.author.set(author)
+    t.original.set(original)
+    t.locLat.set(lat)
+    t.locLon.set(lon)
+    t.time.set(time)
+    t.numRetweets.set(numRetweets)
+    if (parentId != 0) t.parentId.set(parentId)
+    t.parentDist.set(parentDist)
+    t
+  }
+}
 
 class Tweet extends KeyedMapper[Long, Tweet] {
   def getSingleton = Tweet
   def primaryKeyField = tweetId
   
-  object tweetId extends MappedLongIndex(this) { override def dbColumnName = "tweet_id" }
+  object tweetId extends MappedLongIndex(this) { 
+    override def dbColumnName = "tweet_id" 
+    override def writePermission_? = true	//Tweet.build sets it, index fields are read-only by default
+  }
   object author extends MappedString(this, 15)
   object original extends MappedString(this, 140)
   object locLat extends MappedDouble(this) { override def dbColumnName = "loc_lat" }
@@ -22,57 +51,82 @@ class Tweet extends KeyedMapper[Long, Tweet] {
   object parentId extends MappedLongForeignKey(this, Tweet) { override def dbColumnName = "parent_id" }
   object parentDist extends MappedDouble(this) { override def dbColumnName = "parent_dist" }
   
-  var children: List[Tweet] = Nil
+  private var childList: List[Tweet] = Nil
+  private var parentTweet: Tweet = null
+  
+  def children = childList
+  def children_=(c: List[Tweet]) = {
+    childList = c
+    c.foreach(_.parentTweet = this)
+    invalidateStats
+  }
 
   def getChildren = Tweet.findAll(By(Tweet.parentId, tweetId))
   def descendants: List[Tweet] = children ++ children.flatMap(_.descendants)
-  var depth: Int = 0//was -1, trying it with zero
+  
+  // subtree statistics, filled in for the whole subtree by one post-order pass in computeStats.
+  // a valid node always has valid descendants, so invalidating only has to walk up until it 
+  // finds a node that is already invalid
+  private var statsValid = false
+  private var subtreeDepth = 0
+  private var numDescendants = 0
+  private var distSum = 0.0
+  private var distMin = Math.MAX_DOUBLE
+  private var interestingChild = -1
 
-  def recursivelyPopulateChildList: Unit = {	 //returns depth of tree from this tweet
-    children = getChildren
-    
-    var childDepths: List[Int] = Nil
-    children.foreach(child => {
-      child.recursivelyPopulateChildList
-      childDepths = childDepths ++ List(child.depth)
-    })
-    
-    if (children.length == 0) {
-      depth = 0
-    } else {
-      depth = childDepths.sort(_>_).first + 1
+  def recursivelyPopulateChildList: TreeLoadStats = TweetTreeLoader.populate(this)
+  
+  def depth: Int = { ensureStats; subtreeDepth }
+  def descendantCount: Int = { ensureStats; numDescendants }
+  def indexOfMostInterestingChild: Int = { ensureStats; interestingChild } //-1 when there are no children
+  def minDist: Double = { ensureStats; distMin }
+  def avgDist: Double = { ensureStats; distSum / (numDescendants max 1) }
+  
+  def invalidateStats: Unit = {
+    var t = this
+    while (t != null && t.statsValid) {
+      t.statsValid = false
+      t = t.parentTweet
     }
   }
- 
-  def indexOfMostInterestingChild:Int = {
-    if (children.length <= 0) return -1	//bad style. this simplifies code later
-//TODO do depths of -1 when there are no children cause problems???
-    val list1 = for ((t, index) <- children.zipWithIndex) yield (index, t.depth, t.avgDist)
-    val list2 = list1.sort(_._2 > _._2)
-    val list3 = list2.filter(each => each._2 >= list2.first._2) 
-    
-    list3.sort(_._3 > _._3).first._1
-  }
   
-  def minDist = {
+  private def ensureStats = if (!statsValid) computeStats
+  
+  private def computeStats: Unit = {
+    var maxDepth = -1
+    var count = 0
+    var sum = 0.0
     var min = Math.MAX_DOUBLE
-    descendants.foreach(t => {
-      if (t.parentDist < min)
-        min = t.parentDist
+    var best = -1
+    var bestAvg = 0.0
+    
+    var index = 0
+    children.foreach(child => {
+      child.ensureStats
+      val dist = child.parentDist.is
+      count += 1 + child.numDescendants
+      sum += dist + child.distSum
+      min = min min dist min child.distMin
+      
+      //deepest child wins, ties go to the larger avgDist and then to the earlier child
+      val childAvg = child.distSum / (child.numDescendants max 1)
+      if (child.subtreeDepth > maxDepth || (child.subtreeDepth == maxDepth && childAvg > bestAvg)) {
+        maxDepth = child.subtreeDepth
+        bestAvg = childAvg
+        best = index
+      }
+      index += 1
     })
-    min
-  }
-  
-  def avgDist = {
-    descendants.foldLeft(0.0)(_ + _.parentDist.is) / (descendants.length max 1)	
+    
+    subtreeDepth = maxDepth + 1
+    numDescendants = count
+    distSum = sum
+    distMin = min
+    interestingChild = best
+    statsValid = true
   }
   
-  def setDepth(d: Int) = {
-    depth = d
-  }
+  def displayText = author + ": " + new String(original.getBytes(), "MacRoman")
   
-  override def toString = {
-    println(author + ": " + original)
-    author + ": " + new String(original.getBytes(), "MacRoman")
-  }
+  override def toString = displayText
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package localhost
 
-import gov.nasa.worldwind.render.GlobeAnnotation
+import gov.nasa.worldwind.render.{Annotation, AnnotationAttributes, GlobeAnnotation}
+import gov.nasa.worldwind.layers.AnnotationLayer
 import gov.nasa.worldwind.geom.Position
 import java.awt.{Color, Font}
 /*
@@ -13,44 +14,58 @@ class TweetAnnotation (tweetText: String, var position: Position, val color: Col
         "font error"
       }}, position, new Font("Arial Unicode MS", Font.PLAIN, 12))
 {*/
-class TweetAnnotation (tweetText: String, var position: Position, val color: Color, val followThis: Boolean, val isNewTweet: Boolean) 
+class TweetAnnotation (tweetText: String, var position: Position, val style: TreeStyle, val followThis: Boolean) 
     extends GlobeAnnotation(tweetText, position, Font.decode("SansSerif"))//, new Font("Arial Unicode MS", Font.PLAIN, 12))
 {
+  @volatile var layer: AnnotationLayer = null	//told when this moves, so it can keep its index up to date
+
   customConfiguratins
-  if (followThis) {
-    //setAlwaysOnTop(true)
-  } else {
-    updateAnnotationOpacity(getAttributes.getTextColor.getAlpha / 3)
+
+  override def setPosition(p: Position) = {
+    super.setPosition(p)
+    val l = layer
+    if (l != null) l.annotationMoved(this)
   }
     
   def customConfiguratins = {
     var annoAttr = getAttributes
-    if (isNewTweet) {
-      annoAttr.setBorderColor(Color.BLACK)
-      annoAttr.setTextColor(Color.BLACK)
-      annoAttr.setBackgroundColor(new Color(color.getRed, color.getGreen, color.getBlue, 200))
+    if (followThis) {
+      //setAlwaysOnTop(true)
+      annoAttr.setBorderColor(style.borderColor)
+      annoAttr.setTextColor(style.textColor)
+      annoAttr.setBackgroundColor(style.backgroundColor)
     } else {
-      annoAttr.setBorderColor(color)
-      annoAttr.setTextColor(color)
-      annoAttr.setBackgroundColor(new Color(Color.BLACK.getRed, Color.BLACK.getGreen, Color.BLACK.getBlue, 200))
+      annoAttr.setBorderColor(style.fadedBorderColor)
+      annoAttr.setTextColor(style.fadedTextColor)
+      annoAttr.setBackgroundColor(style.fadedBackgroundColor)
     }
     setAttributes(annoAttr)
   }
-  
-  def updateAnnotationOpacity(alpha: Int) = {
-    def calcAlpha(a: Int): Int = 0 max (a - alpha)
-  
-    val attributes = getAttributes
-      
-    val bc = attributes.getBorderColor
-    attributes.setBorderColor(new Color(bc.getRed, bc.getGreen, bc.getBlue, calcAlpha(bc.getAlpha)))
-   
-    val bgc = attributes.getBackgroundColor
-    attributes.setBackgroundColor(new Color(bgc.getRed, bgc.getGreen, bgc.getBlue, calcAlpha(bgc.getAlpha)))
-        
-    val tc = attributes.getTextColor
-    attributes.setTextColor(new Color(tc.getRed, tc.getGreen, tc.getBlue, calcAlpha(tc.getAlpha)))
+}
+
+/**
+ * The annotations of one tree. Every annotation added here takes its defaults from
+ * fadeAttributes, which only sets the opacity, so fading the whole tree is one
+ * setOpacity on the layer no matter how many annotations it holds. The annotations
+ * are indexed by position, TweetAnnotations report their own moves to the layer.
+ */
+class TreeAnnotationLayer extends AnnotationLayer
+{
+  val fadeAttributes = new AnnotationAttributes
+  fadeAttributes.setOpacity(1)
+  setIndexAnnotations(true)
+
+  override def setOpacity(opacity: Double) = {
+    super.setOpacity(opacity)
+    fadeAttributes.setOpacity(opacity)
+  }
 
-    setAttributes(attributes)
-  }  
-}
\ No newline at end of file
+  override def addAnnotation(a: Annotation) = {
+    a.getAttributes.setDefaults(fadeAttributes)
+    a match {
+      case t: TweetAnnotation => t.layer = this
+      case _ =>
+    }
+    super.addAnnotation(a)
+  }
+}
@@ -0,0 +1,220 @@
+package localhost
+
+import net.liftweb.mapper._
+import scala.collection.mutable.ArrayBuffer
+import java.sql.ResultSet
+
+/**
+ * The whole tweets table held in parallel arrays, one slot per tweet in tweet_id order.
+ * Tree structure is kept as parent/first-child/next-sibling slot indexes, so a tree can
+ * be walked and turned into Tweets without going back to the database. refresh streams
+ * in only the rows newer than the last one it saw, so columns of rows already held keep
+ * the value they had when they were first read. The exception is num_retweets: every
+ * child linked in raises its parent's count to at least the number of children held,
+ * so a root that was read with few retweets can still grow into the old-tree rotation.
+ */
+class TweetForest {
+  val NoSlot = -1
+
+  private var size = 0
+  private var tweetIds = new Array[Long](1024)
+  private var parentIds = new Array[Long](1024)	//0 for roots
+  private var parents = new Array[Int](1024)
+  private var firstChildren = new Array[Int](1024)
+  private var lastChildren = new Array[Int](1024)
+  private var nextSiblings = new Array[Int](1024)
+  private var lats = new Array[Double](1024)
+  private var lons = new Array[Double](1024)
+  private var parentDists = new Array[Double](1024)
+  private var numRetweets = new Array[Long](1024)
+  private var numChildren = new Array[Int](1024)	//children linked in so far
+  private var authors = new Array[String](1024)
+  private var texts = new Array[String](1024)
+  private var times = new Array[String](1024)
+
+  private val orphans = new ArrayBuffer[Int]	//children whose parent row has not shown up yet
+
+  def numTweets = synchronized { size }
+  def maxTweetId = synchronized { if (size == 0) 0L else tweetIds(size - 1) }
+  def tweetIdAt(slot: Int) = synchronized { tweetIds(slot) }
+
+  /** streams in every row newer than the newest one held, returns the number of new rows */
+  def refresh: Int = {
+    val after = maxTweetId
+    val startTime = System.currentTimeMillis
+    var numRows = 0
+
+    DB.use(DefaultConnectionIdentifier) { conn =>
+      DB.prepareStatement("SELECT tweet_id, parent_id, loc_lat, loc_lon, parent_dist, num_retweets, author, original, time " +
+                          "FROM tweets WHERE tweet_id > ? ORDER BY tweet_id", conn) { ps =>
+        ps.setLong(1, after)
+        ps.setFetchSize(Integer.MIN_VALUE)	//tells the MySQL driver to stream rows instead of buffering the whole result
+        DB.exec(ps) { rs =>
+          synchronized {
+            while (rs.next) {
+              append(rs)
+              numRows += 1
+            }
+            adoptOrphans
+          }
+        }
+      }
+    }
+
+    println("forest: " + numRows + " new tweets in " + (System.currentTimeMillis - startTime) + "ms, " + numTweets + " total")
+    numRows
+  }
+
+  /** first root newer than tweetId, or NoSlot */
+  def firstRootAfter(tweetId: Long): Int = synchronized {
+    var slot = slotAfter(tweetId)
+    while (slot < size && parentIds(slot) != 0) slot += 1
+    if (slot < size) slot else NoSlot
+  }
+
+  /** next root after slot with more than minRetweets retweets, wrapping around once */
+  def nextRoot(slot: Int, minRetweets: Long): Int = synchronized {
+    var i = slot + 1
+    var checked = 0
+    while (checked < size) {
+      if (i >= size) i = 0
+      if (parentIds(i) == 0 && numRetweets(i) > minRetweets) return i
+      i += 1
+      checked += 1
+    }
+    NoSlot
+  }
+
+  def buildTree(slot: Int): Tweet = synchronized { toTweet(slot) }
+
+  private def toTweet(slot: Int): Tweet = {
+    val t = Tweet.build(tweetIds(slot), authors(slot), texts(slot), lats(slot), lons(slot), times(slot), 
+                        numRetweets(slot), parentIds(slot), parentDists(slot))
+
+    val children = new ArrayBuffer[Tweet]
+    var child = firstChildren(slot)
+    while (child != NoSlot) {
+      children += toTweet(child)
+      child = nextSiblings(child)
+    }
+    t.children = children.toList
+    t
+  }
+
+  private def append(rs: ResultSet) = {
+    if (size == tweetIds.length) grow
+
+    val slot = size
+    tweetIds(slot) = rs.getLong(1)
+    parentIds(slot) = rs.getLong(2)	//NULL comes back as 0
+    lats(slot) = rs.getDouble(3)
+    lons(slot) = rs.getDouble(4)
+    parentDists(slot) = rs.getDouble(5)
+    numRetweets(slot) = rs.getLong(6)
+    authors(slot) = rs.getString(7)
+    texts(slot) = rs.getString(8)
+    times(slot) = rs.getString(9)
+    parents(slot) = NoSlot
+    firstChildren(slot) = NoSlot
+    lastChildren(slot) = NoSlot
+    nextSiblings(slot) = NoSlot
+    numChildren(slot) = 0
+    size += 1
+
+    if (parentIds(slot) != 0 && !link(slot)) orphans += slot
+  }
+
+  private def link(slot: Int): Boolean = {
+    val parent = slotOf(parentIds(slot))
+    if (parent == NoSlot) return false
+
+    parents(slot) = parent
+    if (lastChildren(parent) == NoSlot) firstChildren(parent) = slot
+    else nextSiblings(lastChildren(parent)) = slot
+    lastChildren(parent) = slot
+    numChildren(parent) += 1
+    numRetweets(parent) = numRetweets(parent) max numChildren(parent)
+    true
+  }
+
+  private def adoptOrphans = {
+    val stillOrphans = orphans.filter(!link(_))
+    orphans.clear
+    orphans ++= stillOrphans
+  }
+
+  private def slotOf(tweetId: Long): Int = {
+    val slot = slotAfter(tweetId - 1)
+    if (slot < size && tweetIds(slot) == tweetId) slot else NoSlot
+  }
+
+  /** binary search for the first slot with a tweet_id greater than tweetId */
+  private def slotAfter(tweetId: Long): Int = {
+    var low = 0
+    var high = size
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (tweetIds(mid) <= tweetId) low = mid + 1
+      else high = mid
+    }
+    low
+  }
+
+  private def grow = {
+    val newLength = tweetIds.length * 2
+    tweetIds = copyLongs(tweetIds, newLength)
+    parentIds = copyLongs(parentIds, newLength)
+    numRetweets = copyLongs(numRetweets, newLength)
+    parents = copyInts(parents, newLength)
+    numChildren = copyInts(numChildren, newLength)
+    firstChildren = copyInts(firstChildren, newLength)
+    lastChildren = copyInts(lastChildren, newLength)
+    nextSiblings = copyInts(nextSiblings, newLength)
+    lats = copyDoubles(lats, newLength)
+    lons = copyDoubles(lons, newLength)
+    parentDists = copyDoubles(parentDists, newLength)
+    authors = copyStrings(authors, newLength)
+    texts = copyStrings(texts, newLength)
+    times = copyStrings(times, newLength)
+  }
+
+  private def copyLongs(a: Array[Long], n: Int) = { val b = new Array[Long](n); Array.copy(a, 0, b, 0, size); b }
+  private def copyInts(a: Array[Int], n: Int) = { val b = new Array[Int](n); Array.copy(a, 0, b, 0, size); b }
+  private def copyDoubles(a: Array[Double], n: Int) = { val b = new Array[Double](n); Array.copy(a, 0, b, 0, size); b }
+  private def copyStrings(a: Array[String], n: Int) = { val b = new Array[String](n); Array.copy(a, 0, b, 0, size); b }
+}
+
+/**
+ * Serves trees out of a TweetForest. The forest is scanned once up front and then
+ * topped up with new rows at most every refreshInterval ms.
+ */
+class ForestTreeSource(val forest: TweetForest) extends TreeSource {
+  val refreshInterval = 10000
+  val minRetweets = 2
+
+  forest.refresh
+  private var lastRefresh = System.currentTimeMillis
+  private var lastNewTweetId = forest.maxTweetId
+  private var oldSlot = forest.NoSlot
+
+  def nextNewTree: Option[Tweet] = {
+    val slot = PipelineStats.query.time { synchronized {
+      if (System.currentTimeMillis - lastRefresh > refreshInterval) {
+        forest.refresh
+        lastRefresh = System.currentTimeMillis
+      }
+      val s = forest.firstRootAfter(lastNewTweetId)
+      if (s != forest.NoSlot) lastNewTweetId = forest.tweetIdAt(s)
+      s
+    }}
+    if (slot == forest.NoSlot) None else Some(PipelineStats.treeLoad.time { forest.buildTree(slot) })
+  }
+
+  def nextOldTree: Option[Tweet] = {
+    val slot = PipelineStats.query.time { synchronized {
+      oldSlot = forest.nextRoot(oldSlot, minRetweets)
+      oldSlot
+    }}
+    if (slot == forest.NoSlot) None else Some(PipelineStats.treeLoad.time { forest.buildTree(slot) })
+  }
+}
@@ -4,105 +4,163 @@ import scala.actors.Actor
 import net.liftweb.util.{Log, Can, Full, Empty}
 import net.liftweb.mapper._
 import java.sql.{Connection, DriverManager, SQLException}
+import java.util.concurrent.{ArrayBlockingQueue, Semaphore}
+import java.util.concurrent.atomic.AtomicLong
 import net.liftweb.mapper.Schemifier
+import gov.nasa.worldwind.globes.Globe
 
 
+/**
+ * Keeps a bounded queue of fully built trees filled by a fixed number of TreeFetcher 
+ * threads. A tree only goes to the globeActor when it asks for one with requestTree, 
+ * so the fetchers block on the full queue whenever the globe falls behind. Trees are
+ * turned into TweetTrees on the fetcher threads, so nothing from Lift gets queued.
+ * New roots get a bounded queue of their own that the globe is served from first, so they
+ * never wait behind the old trees fetched ahead of time.
+ */
 class TweetHandler (
-	val globeActor: Actor	
+	val globeActor: Actor,
+	val globe: Globe,
+	val source: TreeSource,
+	val queued: TweetTree => Unit	//called for every tree as it goes into a queue
   ) {
+  def this(globeActor: Actor, globe: Globe, source: TreeSource) = this(globeActor, globe, source, (tree: TweetTree) => ())
+  def this(globeActor: Actor, globe: Globe, useForestIndex: Boolean, queued: TweetTree => Unit) = 
+    this(globeActor, globe, TweetHandler.openSource(useForestIndex), queued)
+  def this(globeActor: Actor, globe: Globe, useForestIndex: Boolean) = this(globeActor, globe, useForestIndex, (tree: TweetTree) => ())
+  def this(globeActor: Actor, globe: Globe) = this(globeActor, globe, false)
   
-  println("Initializing database connection")
-  DB.defineConnectionManager(DefaultConnectionIdentifier, DBVendor)
-  println("Connection defined")
-  Schemifier.schemify(false, Log.infoF _, Tweet)
-  println("Table schemified")
+  val queueSize = 8
+  val numFetchers = 3
+  val retryDelay = 5000
+  val minRejectDelay = 50	//a fetcher backs off from here, doubling up to retryDelay, while its trees get trashed
   
-  var numRootTweets = Tweet.findAll(NullRef(Tweet.parentId), By_>(Tweet.numRetweets, 2)).length   
-  var lastParentId = Tweet.findAll(NullRef(Tweet.parentId)).sort(_.tweetId.is < _.tweetId.is).last.tweetId.is 
-  var index: Int = -1
-  var queueSize = 30
-  var curNumThreads = 0
-  var gettingNewTweets: Boolean = false
+  private val oldTrees = new ArrayBlockingQueue[TweetTree](queueSize)
+  private val newTrees = new ArrayBlockingQueue[TweetTree](queueSize)
+  private val numReady = new Semaphore(0)	//trees in either queue
+  private val requests = new Semaphore(0)
   
-  def addTweetsToQueue = {
-    for (i <- (globeActor.mailboxSize + curNumThreads) to queueSize) {
-      addOneTweetToQueue
+  private val numFetches = new AtomicLong(0)
+  private val totalFetchMillis = new AtomicLong(0)
+  @volatile var lastFetchMillis = 0L
+  
+  def queueDepth = oldTrees.size + newTrees.size
+  def averageFetchMillis = totalFetchMillis.get / (numFetches.get max 1)
+  
+  for (i <- 0 until numFetchers) {
+    new TreeFetcher(this).start()
+  }
+  
+  private val dispatcher = new Thread("tree dispatcher") {
+    override def run = {
+      while (true) {
+        requests.acquire
+        globeActor ! PipelineStats.queueWait.time { takeTree }
+      }
     }
   }
+  dispatcher.setDaemon(true)
+  dispatcher.start()
+  
+  /** the globeActor gets one more tree as soon as one is ready */
+  def requestTree = requests.release
+  
+  /** blocks while the tree's queue is full */
+  def putTree(tree: TweetTree) = {
+    if (tree.isNewTweet) newTrees.put(tree) else oldTrees.put(tree)
+    numReady.release
+    queued(tree)
+  }
+  
+  private def takeTree: TweetTree = {
+    numReady.acquire
+    val tree = newTrees.poll
+    if (tree != null) tree else oldTrees.take
+  }
   
-  def addOneTweetToQueue = {      
-    println("globeActor.mailboxSize = " + globeActor.mailboxSize + "  curNumThreads = " + curNumThreads)
-    if ((globeActor.mailboxSize + curNumThreads) < queueSize) {
-      val newDbActor = new dbActor(this)
-      newDbActor.start()
+  def fetchTree: Option[TweetTree] = {
+    val startTime = System.currentTimeMillis
+    val tree = fetchNewTree match {
+      case Some(newTweet) => Some(PipelineStats.treeBuild.time { TweetTree.fromTweet(newTweet, true, globe) })
+      case None => fetchOldTree.map(t => PipelineStats.treeBuild.time { TweetTree.fromTweet(t, false, globe) })
     }
+    lastFetchMillis = System.currentTimeMillis - startTime
+    numFetches.incrementAndGet
+    totalFetchMillis.addAndGet(lastFetchMillis)
+    tree
   }
   
-  def resetIndex { index = 0 }
+  private def fetchNewTree: Option[Tweet] = {
+    source.nextNewTree.map(newTweet => {
+      println("  sendTweet (new) " + newTweet.tweetId + "  from " + newTweet.author)
+      newTweet
+    })
+  }
+  
+  private def fetchOldTree: Option[Tweet] = {
+    val oldTweet = source.nextOldTree match {
+      case Some(t) => t
+      case None => return None	//no old roots at all yet, the fetcher backs off
+    }
+    
+    if (treeIsAcceptable(oldTweet)) {
+      println("  sendTweet (old) " + oldTweet.tweetId + "  from " + oldTweet.author + "  queueDepth=" + queueDepth + " avgFetchMillis=" + averageFetchMillis)
+      Some(oldTweet)
+    } else {
+      println("  trashed (old) " + oldTweet.tweetId + "  from " + oldTweet.author)
+      None
+    }
+  }
+    
+  def treeIsAcceptable(t: Tweet): Boolean = {
+    println("    " + t.author + "  t.depth=" + t.depth.toInt + " minAvgDist=" + t.avgDist.toInt + " minDist=" + t.minDist.toInt)
+    PipelineStats.acceptance.time { TreeAcceptance(t) }
+  }
 }
 
-  class dbActor(val h: TweetHandler) extends Actor {
-    def act() { 
-      println("one new thread")
-      h.index += 1 //TODO do index stuff in loop!
-	  val i: Int = h.index
-      h.curNumThreads += 1
-   
-      var newTweets: List[Tweet] = Nil
-      if (!h.gettingNewTweets) {
-        h.gettingNewTweets = true
-        newTweets = Tweet.findAll(NullRef(Tweet.parentId), By_>(Tweet.tweetId, h.lastParentId)).sort(_.tweetId.is < _.tweetId.is)
-        h.gettingNewTweets = false
-      }
-      
-      if (newTweets.length > 0) {
-	    h.index -= 1
-	    h.lastParentId = newTweets.first.tweetId  
-        var newTweet = newTweets.first
-	    newTweet.recursivelyPopulateChildList
-	    println("  sendTweet (new) " + h.lastParentId + "  from " + newTweet.author)
-	    h.globeActor ! Pair("incoming new tweet", newTweet)
-	    
-      } else if (i < h.numRootTweets) {
-	    var oldTweet = Tweet.findAll(StartAt(i), MaxRows(1), NullRef(Tweet.parentId), By_>(Tweet.numRetweets, 2)).first
-	    oldTweet.recursivelyPopulateChildList
-	    if (treeIsAcceptable(oldTweet)) {
-	      println("  sendTweet (old) " + i + "  from " + oldTweet.author)
-          h.globeActor ! Pair("incoming old tweet", oldTweet)
-	    } else {
-	      h.addOneTweetToQueue //replensih queue if one was thrown out
-	      println("  trashed (old) " + i + "  from " + oldTweet.author)
-	    }
-     
-	  } else {
-	    h.resetIndex
-	  }
-      
-      h.curNumThreads -= 1
-      h.addTweetsToQueue //TODO maybe this is getting called a million times recursively, and that's causing the out-of-memory crashes
-    } 
+object TweetHandler {
+  /** connects to MySQL and picks the TreeSource the fetchers read from */
+  def openSource(useForestIndex: Boolean): TreeSource = {
+    println("Initializing database connection")
+    DB.defineConnectionManager(DefaultConnectionIdentifier, DBVendor)
+    println("Connection defined")
+    Schemifier.schemify(false, Log.infoF _, Tweet)
+    Schemifier.schemify(true, Log.infoF _, TreeSummary)
+    println("Table schemified")
     
-    def treeIsAcceptable(t: Tweet): Boolean = {
-      var minDepth = 2
-      var minAvgDist = 2000
-      var minDist = 300
-      println("    " + t.author + "  t.depth=" + t.depth.toInt + " minAvgDist=" + t.avgDist.toInt + " minDist=" + t.minDist.toInt)
+    if (useForestIndex) new ForestTreeSource(new TweetForest) else new SqlTreeSource
+  }
+}
 
-      ((t.numRetweets > minDepth) && (t.depth >= minDepth) && (t.avgDist >= minAvgDist) && (t.minDist >= minDist))
+  class TreeFetcher(val h: TweetHandler) extends Thread("tree fetcher") {
+    setDaemon(true)
+    
+    private var rejectDelay = 0
+    
+    override def run = {
+      while (true) {
+        try {
+          h.fetchTree match {
+            case Some(tree) => {
+              rejectDelay = 0
+              h.putTree(tree)	//blocks while the queue is full
+            }
+            case None => {	//trashed, or nothing new and no old roots yet
+              rejectDelay = if (rejectDelay == 0) h.minRejectDelay else (rejectDelay * 2) min h.retryDelay
+              Thread.sleep(rejectDelay)
+            }
+          }
+        } catch {
+          case e: Exception => {
+            e.printStackTrace
+            Thread.sleep(h.retryDelay)
+          }
+        }
+      }
     }
   }
   
   
-object DBVendor extends ConnectionManager {
-  def newConnection(name: ConnectionIdentifier): Can[Connection] = {
-    try {
-      Class.forName("com.mysql.jdbc.Driver")
-      val dm = DriverManager.getConnection("jdbc:mysql://mysql.lehrblogger.com/retweettree?user=twiterra_app&password=jelf7ya9head8w")
-      Full(dm)
-    } catch {
-      case e : Exception => e.printStackTrace; Empty
-    }
-  }
-  
-  def releaseConnection(conn: Connection) {conn.close}
-}
\ No newline at end of file
+object DBVendor extends PooledConnectionManager("com.mysql.jdbc.Driver",
+    "jdbc:mysql://mysql.lehrblogger.com/retweettree?user=twiterra_app&password=jelf7ya9head8w" + 
+    "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=64&prepStmtCacheSqlLimit=2048", 6)
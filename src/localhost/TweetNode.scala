@@ -0,0 +1,62 @@
+package localhost
+
+import gov.nasa.worldwind.geom.{Position, Sector, Vec4}
+import gov.nasa.worldwind.globes.Globe
+import java.awt.Color
+import java.util.Random
+
+/**
+ * Immutable, render-ready copy of one tweet in a loaded tree. Everything the display
+ * needs is worked out once here, so the Lift Tweets can be dropped right after loading.
+ */
+class TweetNode(val tweetId: Long, val text: String, val position: Position, val point: Vec4,
+                val children: List[TweetNode], val followIndex: Int) {
+  def numChildren = children.length
+}
+
+object TweetNode {
+  def fromTweet(t: Tweet, globe: Globe): TweetNode = {
+    val position = Position.fromDegrees(t.locLat, t.locLon, 0)
+    new TweetNode(t.tweetId.is, t.displayText, position, globe.computePointFromPosition(position),
+                  t.children.map(fromTweet(_, globe)), t.indexOfMostInterestingChild)
+  }
+
+  def count(n: TweetNode): Int = n.children.foldLeft(1)(_ + count(_))
+
+  def bounds(n: TweetNode): Sector = n.children.foldLeft(Sector.boundingSector(n.position, n.position))(_ union bounds(_))
+}
+
+/** a whole tree ready for the globe, with the colors it will be drawn in and the area it covers */
+class TweetTree(val root: TweetNode, val style: TreeStyle, val numNodes: Int, val bounds: Sector) {
+  def isNewTweet = style.isNewTweet
+}
+
+object TweetTree {
+  private val randColor = new Random()
+
+  def fromTweet(root: Tweet, isNewTweet: Boolean, globe: Globe): TweetTree = {
+    val node = TweetNode.fromTweet(root, globe)
+    new TweetTree(node, new TreeStyle(randomColor, isNewTweet), TweetNode.count(node), TweetNode.bounds(node))
+  }
+
+  def randomColor = new Color((randColor.nextFloat * 65).toInt + 175, (randColor.nextFloat * 65).toInt + 175, (randColor.nextFloat * 65).toInt + 175)
+}
+
+/** every Color a tree's lines and annotations use, made once per tree and shared */
+class TreeStyle(val color: Color, val isNewTweet: Boolean) {
+  val fadedAlpha = 255 / 3	//taken off the annotations that are not being followed
+
+  val textColor = if (isNewTweet) Color.BLACK else color
+  val borderColor = textColor
+  val backgroundColor = if (isNewTweet) new Color(color.getRed, color.getGreen, color.getBlue, 200)
+                        else new Color(Color.BLACK.getRed, Color.BLACK.getGreen, Color.BLACK.getBlue, 200)
+
+  val fadedTextColor = withLessAlpha(textColor, fadedAlpha)
+  val fadedBorderColor = withLessAlpha(borderColor, fadedAlpha)
+  val fadedBackgroundColor = withLessAlpha(backgroundColor, fadedAlpha)
+
+  val followedHighlightColor = new Color(Color.WHITE.getRed, Color.WHITE.getGreen, Color.WHITE.getBlue, 50)
+  val highlightColor = new Color(Color.BLACK.getRed, Color.BLACK.getGreen, Color.BLACK.getBlue, 50)
+
+  private def withLessAlpha(c: Color, alpha: Int) = new Color(c.getRed, c.getGreen, c.getBlue, 0 max (c.getAlpha - alpha))
+}
@@ -0,0 +1,242 @@
+package localhost
+
+import net.liftweb.mapper._
+import java.io.{BufferedInputStream, BufferedOutputStream, DataInputStream, DataOutputStream, EOFException, File, FileInputStream, FileOutputStream}
+import java.text.{ParsePosition, SimpleDateFormat}
+import java.util.Locale
+
+/**
+ * A copy of the tweets table on local disk for replays, held in parallel arrays sorted
+ * by time (tweet_id breaks ties). parentSlots and rootSlots point back into the same
+ * arrays, -1 for a root's parent; a tweet whose parent is not in the snapshot counts
+ * as a root.
+ *
+ * file: tweetId, parentId, lat, lon, parentDist, time in millis, author, original; repeated
+ */
+class TweetSnapshot(val tweetIds: Array[Long], val parentSlots: Array[Int], val rootSlots: Array[Int],
+                    val lats: Array[Double], val lons: Array[Double], val times: Array[Long], val texts: Array[String]) {
+  def size = tweetIds.length
+  def startTime = if (size == 0) 0L else times(0)
+  def endTime = if (size == 0) 0L else times(size - 1)
+  def isRoot(slot: Int) = parentSlots(slot) < 0
+
+  /** first slot with a time after time */
+  def slotAfter(time: Long): Int = {
+    var low = 0
+    var high = size
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (times(mid) <= time) low = mid + 1
+      else high = mid
+    }
+    low
+  }
+}
+
+object TweetSnapshot {
+  /** writes the whole tweets table to file, needs the DB connection defined */
+  def export(file: File): Int = {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))
+    var numRows = 0
+    try {
+      DB.use(DefaultConnectionIdentifier) { conn =>
+        DB.prepareStatement("SELECT tweet_id, parent_id, loc_lat, loc_lon, parent_dist, time, author, original FROM tweets ORDER BY tweet_id", conn) { ps =>
+          ps.setFetchSize(Integer.MIN_VALUE)	//stream, the table does not fit in memory twice
+          DB.exec(ps) { rs =>
+            var lastTime = 0L
+            while (rs.next) {
+              lastTime = TweetTime.parse(rs.getString(6), lastTime)
+              out.writeLong(rs.getLong(1))
+              out.writeLong(rs.getLong(2))
+              out.writeDouble(rs.getDouble(3))
+              out.writeDouble(rs.getDouble(4))
+              out.writeDouble(rs.getDouble(5))
+              out.writeLong(lastTime)
+              out.writeUTF(nonNull(rs.getString(7)))
+              out.writeUTF(nonNull(rs.getString(8)))
+              numRows += 1
+            }
+          }
+        }
+      }
+    } finally {
+      out.close
+    }
+    numRows
+  }
+
+  def load(file: File): TweetSnapshot = {
+    val startTime = System.currentTimeMillis
+    val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+    var n = 0
+    var tweetIds = new Array[Long](1024)	//in file order, which is tweet_id order
+    var parentIds = new Array[Long](1024)
+    var lats = new Array[Double](1024)
+    var lons = new Array[Double](1024)
+    var times = new Array[Long](1024)
+    var texts = new Array[String](1024)
+    try {
+      while (true) {
+        val tweetId = in.readLong
+        val parentId = in.readLong
+        val lat = in.readDouble
+        val lon = in.readDouble
+        in.readDouble	//parentDist, not needed for replays
+        val time = in.readLong
+        val author = in.readUTF
+        val text = author + ": " + new String(in.readUTF.getBytes(), "MacRoman")	//same as Tweet.displayText
+
+        if (n == tweetIds.length) {
+          tweetIds = grow(tweetIds)
+          parentIds = grow(parentIds)
+          lats = grow(lats)
+          lons = grow(lons)
+          times = grow(times)
+          texts = grow(texts)
+        }
+        tweetIds(n) = tweetId
+        parentIds(n) = parentId
+        lats(n) = lat
+        lons(n) = lon
+        times(n) = time
+        texts(n) = text
+        n += 1
+      }
+    } catch {
+      case e: EOFException =>
+    } finally {
+      in.close
+    }
+
+    val order = sortByKey(times, n)	//stable, so tweet_id order breaks ties
+    val slotOf = new Array[Int](n)	//file index to slot
+    for (slot <- 0 until n) slotOf(order(slot)) = slot
+    val byId = if (isSorted(tweetIds, n)) null else sortByKey(tweetIds, n)	//export writes them sorted already
+
+    val parentSlots = new Array[Int](n)
+    for (slot <- 0 until n) {
+      val parent = indexOf(parentIds(order(slot)), tweetIds, byId, n)
+      parentSlots(slot) = if (parent < 0) -1 else slotOf(parent)
+    }
+    val rootSlots = new Array[Int](n)
+    for (slot <- 0 until n) {
+      var root = slot
+      var hops = 0
+      while (parentSlots(root) >= 0 && hops < n) {	//hops guards against a cycle in bad data
+        root = parentSlots(root)
+        hops += 1
+      }
+      rootSlots(slot) = root
+    }
+
+    val sortedIds = new Array[Long](n)
+    val sortedLats = new Array[Double](n)
+    val sortedLons = new Array[Double](n)
+    val sortedTimes = new Array[Long](n)
+    val sortedTexts = new Array[String](n)
+    for (slot <- 0 until n) {
+      val i = order(slot)
+      sortedIds(slot) = tweetIds(i)
+      sortedLats(slot) = lats(i)
+      sortedLons(slot) = lons(i)
+      sortedTimes(slot) = times(i)
+      sortedTexts(slot) = texts(i)
+    }
+    val snapshot = new TweetSnapshot(sortedIds, parentSlots, rootSlots, sortedLats, sortedLons, sortedTimes, sortedTexts)
+    println("snapshot: " + n + " tweets from " + file + " in " + (System.currentTimeMillis - startTime) + "ms")
+    snapshot
+  }
+
+  /** the indices of the first n keys in key order, equal keys keep their order (a bottom-up merge sort) */
+  private def sortByKey(keys: Array[Long], n: Int): Array[Int] = {
+    var order = new Array[Int](n)
+    var scratch = new Array[Int](n)
+    for (i <- 0 until n) order(i) = i
+    var width = 1
+    while (width < n) {
+      var low = 0
+      while (low < n) {
+        val mid = (low + width) min n
+        val high = (low + 2 * width) min n
+        var a = low
+        var b = mid
+        var k = low
+        while (k < high) {
+          if (a < mid && (b >= high || keys(order(a)) <= keys(order(b)))) {
+            scratch(k) = order(a)
+            a += 1
+          } else {
+            scratch(k) = order(b)
+            b += 1
+          }
+          k += 1
+        }
+        low = high
+      }
+      val t = order
+      order = scratch
+      scratch = t
+      width *= 2
+    }
+    order
+  }
+
+  private def isSorted(keys: Array[Long], n: Int): Boolean = {
+    var i = 1
+    while (i < n && keys(i - 1) <= keys(i)) i += 1
+    i >= n
+  }
+
+  /** index of id in keys, searched through byId if keys aren't sorted themselves, -1 if it isn't there */
+  private def indexOf(id: Long, keys: Array[Long], byId: Array[Int], n: Int): Int = {
+    var low = 0
+    var high = n - 1
+    while (low <= high) {
+      val mid = (low + high) >>> 1
+      val i = if (byId == null) mid else byId(mid)
+      if (keys(i) < id) low = mid + 1
+      else if (keys(i) > id) high = mid - 1
+      else return i
+    }
+    -1
+  }
+
+  private def grow(a: Array[Long]) = { val b = new Array[Long](a.length * 2); System.arraycopy(a, 0, b, 0, a.length); b }
+  private def grow(a: Array[Double]) = { val b = new Array[Double](a.length * 2); System.arraycopy(a, 0, b, 0, a.length); b }
+  private def grow(a: Array[String]) = { val b = new Array[String](a.length * 2); System.arraycopy(a, 0, b, 0, a.length); b }
+
+  private def nonNull(s: String) = if (s == null) "" else s
+
+  /** usage: TweetSnapshot [file], dumps the tweets table to file */
+  def main(args: Array[String]) = {
+    DB.defineConnectionManager(DefaultConnectionIdentifier, DBVendor)
+    val file = new File(if (args.length > 0) args(0) else "tweets.snapshot")
+    println("exported " + export(file) + " tweets to " + file)
+  }
+}
+
+/**
+ * Tweet.time is free text from the feed, this turns the formats we have seen into millis.
+ * Every format has a year, and a format only counts if it takes up the whole string, so
+ * the feed's "Wed Aug 27 13:08:45 +0000 2008" doesn't parse as a day in 1970.
+ */
+object TweetTime {
+  private val formats = List("yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm:ss.S", "EEE MMM dd HH:mm:ss Z yyyy", 
+                             "EEE, dd MMM yyyy HH:mm:ss Z", "EEE, dd MMM yyyy HH:mm:ss", "MM/dd/yyyy HH:mm:ss").map(f => {
+    val format = new SimpleDateFormat(f, Locale.US)
+    format.setLenient(false)
+    format
+  })
+
+  /** fallback is used when nothing parses, so unparseable tweets keep their place in tweet_id order */
+  def parse(time: String, fallback: Long): Long = synchronized {
+    if (time == null) return fallback
+    val s = time.trim
+    formats.foreach(format => {
+      val pos = new ParsePosition(0)
+      val date = format.parse(s, pos)
+      if (date != null && pos.getIndex == s.length) return date.getTime
+    })
+    fallback
+  }
+}
@@ -0,0 +1,104 @@
+package localhost
+
+import net.liftweb.mapper._
+import scala.collection.mutable.{HashMap, ListBuffer}
+
+/**
+ * Loads a whole retweet tree one depth level at a time. Every level costs one
+ * parent_id IN (...) query per chunkSize parents instead of one query per node.
+ */
+object TweetTreeLoader {
+  var chunkSize = 200
+
+  def populate(root: Tweet): TreeLoadStats = {
+    val startTime = System.currentTimeMillis
+    var numQueries = 0
+    var numNodes = 1
+    var level: List[Tweet] = List(root)
+
+    while (!level.isEmpty) {
+      val childrenByParent = new HashMap[Long, ListBuffer[Tweet]]
+      chunk(level.map(_.tweetId.is)).foreach(ids => {
+        numQueries += 1
+        Tweet.findAll(ByList(Tweet.parentId, ids), OrderBy(Tweet.tweetId, Ascending)).foreach(child => {
+          val siblings = childrenByParent.get(child.parentId.is) match {
+            case Some(buf) => buf
+            case None => {
+              val buf = new ListBuffer[Tweet]
+              childrenByParent(child.parentId.is) = buf
+              buf
+            }
+          }
+          siblings += child
+        })
+      })
+
+      val nextLevel = new ListBuffer[Tweet]
+      level.foreach(t => {
+        t.children = childrenByParent.get(t.tweetId.is) match {
+          case Some(buf) => buf.toList
+          case None => Nil
+        }
+        nextLevel ++= t.children
+      })
+      numNodes += nextLevel.length
+      level = nextLevel.toList
+    }
+
+    TreeLoadStats(numNodes, numQueries, System.currentTimeMillis - startTime)
+  }
+
+  /** the tweets with these ids, chunkSize ids per tweet_id IN (...) query */
+  def findByIds(ids: List[Long]): List[Tweet] = chunk(ids).flatMap(c => Tweet.findAll(ByList(Tweet.tweetId, c)))
+
+  private def chunk(ids: List[Long]): List[List[Long]] = {
+    val chunks = new ListBuffer[List[Long]]
+    var rest = ids
+    while (!rest.isEmpty) {
+      chunks += rest.take(chunkSize)
+      rest = rest.drop(chunkSize)
+    }
+    chunks.toList
+  }
+}
+
+case class TreeLoadStats(numNodes: Int, numQueries: Int, millis: Long)
+
+/**
+ * Loads the first few acceptable-looking roots both ways and prints the number of
+ * queries and the wall time against the size of each tree.
+ */
+object TreeLoadBenchmark {
+  def main(args: Array[String]) {
+    val numTrees = if (args.length > 0) args(0).toInt else 20
+    DB.defineConnectionManager(DefaultConnectionIdentifier, DBVendor)
+
+    println("nodes\tper-node queries\tper-node ms\tlevel queries\tlevel ms\tfirst")
+    var perNodeFirst = true
+    Tweet.findAll(NullRef(Tweet.parentId), By_>(Tweet.numRetweets, 2), MaxRows(numTrees)).foreach(root => {
+      TweetTreeLoader.populate(root)	//untimed, so neither method pays for a cold buffer pool and query cache
+
+      //and the order alternates, so neither always runs right after the other
+      var perNodeQueries = 0
+      var perNodeMillis = 0L
+      def timePerNode = {
+        val startTime = System.currentTimeMillis
+        perNodeQueries = populatePerNode(root)
+        perNodeMillis = System.currentTimeMillis - startTime
+      }
+      if (perNodeFirst) timePerNode
+      val stats = TweetTreeLoader.populate(root)
+      if (!perNodeFirst) timePerNode
+
+      println(stats.numNodes + "\t" + perNodeQueries + "\t" + perNodeMillis + "\t" + stats.numQueries + "\t" + stats.millis +
+              "\t" + (if (perNodeFirst) "per-node" else "level"))
+      perNodeFirst = !perNodeFirst
+    })
+  }
+
+  //the old one-query-per-node walk, kept here only to compare against
+  private def populatePerNode(t: Tweet): Int = {
+    t.children = t.getChildren
+    t.children.foldLeft(1)(_ + populatePerNode(_))
+  }
+}
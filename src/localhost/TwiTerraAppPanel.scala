@@ -27,16 +27,30 @@ import scala.actors.Actor._
 import scala.collection.jcl.Conversions._
 import scala.collection.jcl._
 
-import org.jdesktop.animation.timing.{Animator, TimingTargetAdapter}
+import org.jdesktop.animation.timing.TimingTargetAdapter
 import org.jdesktop.animation.timing.interpolation.PropertySetter
 
 
-class TwiTerraAppPanel (val canvasSize: Dimension) extends JPanel
+class TwiTerraAppPanel (val canvasSize: Dimension, val numConcurrentTrees: Int, val replayFile: String, val replaySpeed: Double,
+                        val useForestIndex: Boolean) extends JPanel
 {
+  def this(canvasSize: Dimension, numConcurrentTrees: Int) = this(canvasSize, numConcurrentTrees, null, 1, false)
+  // -Dtwiterra.replay=<snapshot file> -Dtwiterra.replaySpeed=<N> replays a TweetSnapshot instead of showing live trees
+  // -Dtwiterra.forestIndex=true builds trees from an in-memory TweetForest instead of querying MySQL for each one
+  // -Dtwiterra.concurrentTrees=<N> plays up to N trees at once
+  def this(canvasSize: Dimension) = this(canvasSize, Integer.getInteger("twiterra.concurrentTrees", 1).intValue,
+                                         System.getProperty("twiterra.replay"), System.getProperty("twiterra.replaySpeed", "60").toDouble,
+                                         java.lang.Boolean.getBoolean("twiterra.forestIndex"))
+  
   var wwd: WorldWindowGLCanvas = new WorldWindowGLCanvas()												// random stuff I do not full understand for the DrawingContext, for the lines and Annotations
   var initLayerCount = 0;
   
   wwd.setPreferredSize(canvasSize);
+  val scheduler = new AnimationScheduler(wwd)	//every line animation ticks here, on the GL thread
+  val timeline = new ExecutorTimeline	//and every pause between them waits here
+  val prefetcher = new TilePrefetcher(wwd)
+  prefetcher.start()
+  PipelineStats.attach(wwd)
 
   // Create the default model as described in the current worldwind properties.
   var m: Model = (WorldWind.createConfigurationComponent(AVKey.MODEL_CLASS_NAME)).asInstanceOf[Model];
@@ -71,6 +85,8 @@ class TwiTerraAppPanel (val canvasSize: Dimension) extends JPanel
       }
       initLayerCount = layers.length
       wwd.getModel.setLayers(new LayerList(layers.toArray))
+      val playback = new TreePlayback(wwd.getModel.getLayers, new ViewCamera(wwd), scheduler, timeline, numConcurrentTrees == 1,
+                                      tree => prefetcher.arrived(tree.root.position), tree => globeActor ! TreeDone(tree))
         /*
       val aLayer: AnnotationLayer = new AnnotationLayer()
 	  aLayer.addAnnotation(new GlobeAnnotation("我与今天上午离开人世，再见，中国人", Position.fromDegrees(43.7340, 7.4211, 0), Font.decode("Arial-BOLD-12")));
@@ -78,164 +94,81 @@ class TwiTerraAppPanel (val canvasSize: Dimension) extends JPanel
 	  wwd.getModel.getLayers.add(wwd.getModel.getLayers.size, aLayer)
      */
      
+    // plays up to numConcurrentTrees trees at once. every "animation complete" frees a slot,
+    // and a tree only starts if its bounds stay clear of the trees already playing, otherwise
+    // it waits and another one is asked for
+    private val playing = new scala.collection.mutable.ListBuffer[TweetTree]	//only touched by globeActor
+    private val waiting = new scala.collection.mutable.Queue[TweetTree]
+    private var freeSlots = 0
+    private val startTime = System.currentTimeMillis
+    private var numTreesPlayed = 0
+    
     val globeActor = actor {
         loop {
           react {
-            case "animation complete" => react {
-              case ("incoming new tweet", newTweet: Tweet) => {
-                displayTweetTree(newTweet, true)
-              }
-              case ("incoming old tweet", newTweet: Tweet) => {
-                displayTweetTree(newTweet, false)
+            case "animation complete" => {
+              freeSlots += 1
+              startTrees
+            }
+            case TreeDone(tree) => {
+              playing -= tree
+              numTreesPlayed += 1
+              println("played " + numTreesPlayed + " trees, " + treesPerMinute + " per minute")
+              freeSlots += 1
+              startTrees
+            }
+            case tree: TweetTree => {
+              waiting += tree
+              if (freeSlots > 0 && !startTrees) {
+                if (waiting.length > numConcurrentTrees * 2) waiting.dequeue	//too crowded, skip the oldest
+                tweetHandler.requestTree
               }
             }
           }
         }
     }
-    val tweetHandler = new TweetHandler(globeActor)
-    tweetHandler.addTweetsToQueue
-   
-    globeActor ! "animation complete"
-      
-    val maxNumTrees = 8
-    val animDuration = 3000
-    val readDuration = 4500
-   
-    val transitionActor = actor {
-      loop {
-        react {
-          case t: TweetPackage => {
-            Thread.sleep(readDuration)
-            displayTweet(t)
-          }
-          case "animation complete" => {
-            tweetHandler.addTweetsToQueue
-            globeActor ! "animation complete" //wait until all the animations here are done, then it will wake up and go
-          }
-        }
+    val tweetHandler: TweetHandler = if (replayFile != null) null else new TweetHandler(globeActor, wwd.getModel.getGlobe, useForestIndex, 
+                                                                                           tree => prefetcher.prefetch(tree))
+    if (replayFile == null) {
+      for (i <- 0 until numConcurrentTrees) {
+        tweetHandler.requestTree
+        globeActor ! "animation complete"
       }
+    } else {
+      new SnapshotReplay(TweetSnapshot.load(new java.io.File(replayFile)), replaySpeed, playback, wwd.getModel.getGlobe).start
     }
     
+    def treesPerMinute = numTreesPlayed * 60000.0 / ((System.currentTimeMillis - startTime) max 1)
     
-    def displayTweetTree(newTweet: Tweet, isNewTweet: Boolean): Unit = {          
-      val initEyePos: Position = new Position(wwd.getView.getCurrentEyePosition.getLatitude, wwd.getView.getCurrentEyePosition.getLongitude, 0)
-	    val newTweetPos: Position = Position.fromDegrees(newTweet.locLat, newTweet.locLon, 0)
-	    wwd.getView.applyStateIterator(ScheduledOrbitViewStateIterator.createCenterIterator(initEyePos, newTweetPos, animDuration, true))
-	    Thread.sleep(animDuration)
-	    
-	    
-	    val randColor = new Random()	
-	    val color = new Color((randColor.nextFloat * 65).toInt + 175, (randColor.nextFloat * 65).toInt + 175, (randColor.nextFloat * 65).toInt + 175)
-	      
-	    val rLayer: RenderableLayer = new RenderableLayer()
-	    wwd.getModel.getLayers.add(wwd.getModel.getLayers.size, rLayer)
-	  
-	    updateTreeLayers
-	    val tweetAnno = new TweetAnnotation(newTweet.toString, Position.fromDegrees(newTweet.locLat, newTweet.locLon, 0), color, true, isNewTweet)
-	    val aLayer: AnnotationLayer = new AnnotationLayer()
-	    aLayer.addAnnotation(tweetAnno)
-	    wwd.getModel.getLayers.add(wwd.getModel.getLayers.size, aLayer)
-	    //Thread.sleep(readDuration)
-	    
-	    transitionActor ! new TweetPackage(newTweet, true, isNewTweet, rLayer, aLayer, color)
-    }
-    
-    def displayTweet(t: TweetPackage): Unit = {
-      val newPos: Position = Position.fromDegrees(t.tweet.locLat, t.tweet.locLon, 0)
-      var maxIndex = t.tweet.indexOfMostInterestingChild
-      var index = 0
-      
-      t.tweet.children.foreach(childTweet => {
-        val childPos: Position = Position.fromDegrees(childTweet.locLat, childTweet.locLon, 0)
-        val followNext = (t.followThis && (maxIndex == index))
-      
-        val tweetAnno = new TweetAnnotation(childTweet.toString, newPos, t.color, followNext, t.isNewTweet)
-        t.aLayer.addAnnotation(tweetAnno)
-        var line = new AnimatedAnnotatedLine(newPos, childPos, tweetAnno, t.color, followNext)
-        t.rLayer.addRenderable(line)
-        
-        val target = new LineEventHandler(line, new TweetPackage(childTweet, followNext, t.isNewTweet, t.rLayer, t.aLayer, t.color))
-        val anim: Animator = new Animator(animDuration, target)
-        anim.start()
-        
-     	if (followNext) {
-     	  wwd.getView.applyStateIterator(ScheduledOrbitViewStateIterator.createCenterIterator(newPos, childPos, animDuration, true))
-        }
-      
-        index += 1
-      })
-      
-      if (t.followThis && (t.tweet.children.length == 0)) {
-        transitionActor ! "animation complete"
+    /** starts every waiting tree that fits, returns whether any did */
+    private def startTrees: Boolean = {
+      var started = false
+      var fits = waiting.find(tree => !playing.exists(_.bounds.intersects(tree.bounds)))
+      while (freeSlots > 0 && fits.isDefined) {
+        val tree = fits.get
+        waiting.dequeueFirst(_ eq tree)
+        playing += tree
+        freeSlots -= 1
+        started = true
+        displayTweetTree(tree)
+        fits = waiting.find(tree => !playing.exists(_.bounds.intersects(tree.bounds)))
       }
+      started
     }
-    
-    def updateTreeLayers = {
-      var initLayers: scala.List[Layer] = wwd.getModel.getLayers.toList
-      var finalLayers: scala.List[Layer] = initLayers.dropRight(initLayers.length - initLayerCount)
-      
-      var alpha = (255 / maxNumTrees)
-      initLayers = initLayers.drop(initLayerCount)
-      initLayers = initLayers.drop(initLayers.length - (maxNumTrees.toInt * 2))
-      initLayers.foreach( l => {
-        if (l.isInstanceOf[RenderableLayer]) {
-          setRLayerOpacity(l.asInstanceOf[RenderableLayer], alpha)
-	    } else if (l.isInstanceOf[AnnotationLayer]) {
-          setALayerOpacity(l.asInstanceOf[AnnotationLayer], alpha)
-	    }
-        finalLayers = finalLayers ++ scala.List(l)
-      })
       
-      wwd.getModel.setLayers(new LayerList(finalLayers.toArray))
+    // asks for the next tree straight away so it is fetched and laid out while this one plays.
+    // with several trees playing the camera backs off until it sees all of them instead of
+    // going to the newest root
+    def displayTweetTree(tree: TweetTree): Unit = {          
+      tweetHandler.requestTree
+      if (numConcurrentTrees == 1) playback.play(tree, tree.root.position)
+      else playback.play(tree, playing.map(_.bounds).reduceLeft(_ union _))
     }
     
-  def setRLayerOpacity(l: RenderableLayer, alpha: Int) {
-	  var renderablesIterator: JIterator[Renderable] = l.getRenderables.iterator
-   
-	  while (renderablesIterator.hasNext) {
-	    var r = renderablesIterator.next
-	    if (r.isInstanceOf[AnimatedAnnotatedLine]) {
-	      r.asInstanceOf[AnimatedAnnotatedLine].updateLineOpacity(alpha)
-	    }
-	 }
-  }
-  def setALayerOpacity(l: AnnotationLayer, alpha: Int) {
-	  var renderablesIterator: JIterator[Annotation] = l.getAnnotations.iterator
-   
-	  while (renderablesIterator.hasNext) {
-	    var a = renderablesIterator.next
-        if (a.isInstanceOf[TweetAnnotation]) {
-	      a.asInstanceOf[TweetAnnotation].updateAnnotationOpacity(alpha)
-	    }
-	 }
-  }
-    
 
   def getWwd: WorldWindowGLCanvas = {
      return wwd;
   }
-    
-    class LineEventHandler(line: AnimatedAnnotatedLine, t: TweetPackage) extends TimingTargetAdapter
-    {
-      override def begin = {
-      }
-      
-      override def timingEvent(fraction: Float) = {
-        line.updateLine(fraction)
-      }
-  
-      override def end = {
-        if (t.followThis) {
-          transitionActor ! t
-        } else {
-          displayTweet(t)
-        }
-      } 
-    }	    
 }
 
-case class TweetPackage(tweet: Tweet, followThis: Boolean, isNewTweet: Boolean, rLayer: RenderableLayer, aLayer: AnnotationLayer, color: Color)
-
-
-
-
+case class TreeDone(tree: TweetTree)